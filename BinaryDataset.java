@@ -0,0 +1,158 @@
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/*
+
+binary format for datasets, the file starts with a header of three little
+endian 32-bit integers (the magic number, n and d) followed by the n points,
+each stored as d little endian 32-bit floats
+
+the file is memory mapped, so a point is served as a view of the mapping and
+skipping points is a seek rather than a scan
+
+*/
+
+class BinaryDataset {
+
+  // identifies files in this format ("DKCB")
+  public static final int MAGIC = 0x42434B44;
+
+  // size of the header in bytes
+  public static final int HEADER_BYTES = 12;
+
+  // number of points and their dimension
+  private int n;
+  private int d;
+
+  // number of points in each mapped region (a mapping is at most 2GB)
+  private int regionPoints;
+
+  // the mapped regions of the file viewed as floats
+  private FloatBuffer[] regions;
+
+  BinaryDataset(String path) throws IOException {
+
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+
+      // read the header
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      while (header.hasRemaining() && channel.read(header) >= 0);
+      header.flip();
+
+      if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+        throw new IOException(path + " is not a binary dataset");
+      }
+
+      this.n = header.getInt();
+      this.d = header.getInt();
+
+      long rowBytes = 4L*Math.max(1, d);
+      this.regionPoints = (int)Math.max(1, Integer.MAX_VALUE/rowBytes);
+
+      // map the points
+      int regionCount = (n + regionPoints - 1)/regionPoints;
+      this.regions = new FloatBuffer[regionCount];
+
+      for (int r = 0; r < regionCount; r++) {
+        long start = HEADER_BYTES + r*(long)regionPoints*rowBytes;
+        long points = Math.min(regionPoints, n - (long)r*regionPoints);
+        regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, start, points*rowBytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+      }
+    }
+  }
+
+  // the number of points
+  public int n() {
+    return n;
+  }
+
+  // the dimension of the points
+  public int d() {
+    return d;
+  }
+
+  // returns a view of point i (no data is copied)
+  public FloatBuffer view(int i) {
+    return regions[i/regionPoints].slice((i % regionPoints)*d, d);
+  }
+
+  // copies point i into out
+  public void get(int i, float[] out) {
+    regions[i/regionPoints].get((i % regionPoints)*d, out, 0, d);
+  }
+
+  // returns a copy of point i
+  public float[] point(int i) {
+    float[] point = new float[d];
+    get(i, point);
+    return point;
+  }
+
+  // checks if the file at path is in this format
+  public static boolean isBinary(String path) {
+
+    try (DataInputStream in = new DataInputStream(new FileInputStream(path))) {
+      return Integer.reverseBytes(in.readInt()) == MAGIC;
+    } catch (IOException error) {
+      return false;
+    }
+  }
+
+  // converts a dataset in the text format described in the README to this format
+  public static void convert(String textPath, String binaryPath) throws IOException {
+
+    try (BufferedReader reader = new BufferedReader(new FileReader(textPath), 1 << 20);
+         FileChannel channel = FileChannel.open(Paths.get(binaryPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+      // read the first line containing n and d
+      StringTokenizer tokens = new StringTokenizer(reader.readLine());
+      int n = Integer.parseInt(tokens.nextToken());
+      int d = Integer.parseInt(tokens.nextToken());
+
+      ByteBuffer buffer = ByteBuffer.allocate(Math.max(1 << 20, 4*d)).order(ByteOrder.LITTLE_ENDIAN);
+
+      buffer.putInt(MAGIC);
+      buffer.putInt(n);
+      buffer.putInt(d);
+
+      // the points may be split across lines in any way, as with the Scanner
+      int values = 0;
+      long total = (long)n*d;
+
+      while (values < total) {
+
+        String line = reader.readLine();
+        if (line == null) {
+          throw new EOFException(textPath + " contains fewer than " + n + " points");
+        }
+
+        tokens = new StringTokenizer(line);
+
+        while (tokens.hasMoreTokens() && values < total) {
+
+          if (buffer.remaining() < 4) {
+            write(channel, buffer);
+          }
+
+          buffer.putFloat(Float.parseFloat(tokens.nextToken()));
+          values++;
+        }
+      }
+
+      write(channel, buffer);
+    }
+  }
+
+  // writes out and clears the buffer
+  private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,168 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/*
+
+reads a checkpoint written by CheckpointWriter
+
+the file is memory mapped (in regions, as a mapping is at most 2GB) and the
+arrays are copied out of the mapping in bulk, so reading a checkpoint is
+bound by the speed of the disk rather than by parsing
+
+*/
+
+class CheckpointReader implements Closeable {
+
+  // size of the mapped regions
+  private static final long REGION_BYTES = 1L << 30;
+
+  private FileChannel channel;
+
+  // the current region and the position in the file where it starts
+  private MappedByteBuffer region;
+  private long regionStart;
+
+  // the version of the format of the file
+  private int version;
+
+  CheckpointReader(String path, int type) throws IOException {
+
+    this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+
+    this.regionStart = 0;
+    this.region = map(0);
+
+    if (channel.size() < 12 || getInt() != CheckpointWriter.MAGIC) {
+      channel.close();
+      throw new IOException(path + " is not a checkpoint");
+    }
+
+    this.version = getInt();
+
+    if (version < 1 || version > CheckpointWriter.VERSION) {
+      channel.close();
+      throw new IOException(path + " has unsupported checkpoint version " + version);
+    }
+
+    if (getInt() != type) {
+      channel.close();
+      throw new IOException(path + " is a checkpoint of another algorithm");
+    }
+  }
+
+  // the version of the format of the file
+  public int version() {
+    return version;
+  }
+
+  public int getInt() throws IOException {
+    ensure(4);
+    return region.getInt();
+  }
+
+  public long getLong() throws IOException {
+    ensure(8);
+    return region.getLong();
+  }
+
+  public float getFloat() throws IOException {
+    ensure(4);
+    return region.getFloat();
+  }
+
+  public boolean getBoolean() throws IOException {
+    return getInt() != 0;
+  }
+
+  // reads an array into a new array of the given length (at least the stored length)
+  public int[] getInts(int length) throws IOException {
+
+    int stored = getInt();
+    int[] values = new int[Math.max(length, stored)];
+
+    int i = 0;
+    while (i < stored) {
+      ensure(4);
+      int count = Math.min(stored - i, region.remaining()/4);
+      region.asIntBuffer().get(values, i, count);
+      region.position(region.position() + 4*count);
+      i += count;
+    }
+
+    return values;
+  }
+
+  public float[] getFloats(int length) throws IOException {
+
+    int stored = getInt();
+    float[] values = new float[Math.max(length, stored)];
+
+    int i = 0;
+    while (i < stored) {
+      ensure(4);
+      int count = Math.min(stored - i, region.remaining()/4);
+      region.asFloatBuffer().get(values, i, count);
+      region.position(region.position() + 4*count);
+      i += count;
+    }
+
+    return values;
+  }
+
+  public long[] getLongs(int length) throws IOException {
+
+    int stored = getInt();
+    long[] values = new long[Math.max(length, stored)];
+
+    int i = 0;
+    while (i < stored) {
+      ensure(8);
+      int count = Math.min(stored - i, region.remaining()/8);
+      region.asLongBuffer().get(values, i, count);
+      region.position(region.position() + 8*count);
+      i += count;
+    }
+
+    return values;
+  }
+
+  public int[] getInts() throws IOException {
+    return getInts(0);
+  }
+
+  public float[] getFloats() throws IOException {
+    return getFloats(0);
+  }
+
+  public long[] getLongs() throws IOException {
+    return getLongs(0);
+  }
+
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  // maps the next region if fewer than bytes bytes are left in this one
+  private void ensure(int bytes) throws IOException {
+
+    if (region.remaining() >= bytes) return;
+
+    long position = regionStart + region.position();
+
+    if (position + bytes > channel.size()) {
+      throw new EOFException("checkpoint ends unexpectedly");
+    }
+
+    regionStart = position;
+    region = map(position);
+  }
+
+  private MappedByteBuffer map(long position) throws IOException {
+    long size = Math.min(REGION_BYTES, channel.size() - position);
+    MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    mapped.order(ByteOrder.LITTLE_ENDIAN);
+    return mapped;
+  }
+}
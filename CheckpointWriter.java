@@ -0,0 +1,144 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/*
+
+writes the state of a dynamic algorithm to a checkpoint file, which is read
+back by CheckpointReader
+
+the file starts with a header of three little endian 32-bit integers (the
+magic number, the version of the format and the type of the algorithm)
+followed by the state, a sequence of little endian integers and floats in
+the order the algorithm writes them, where an array is stored as its length
+followed by its elements
+
+*/
+
+class CheckpointWriter implements Closeable {
+
+  // identifies files in this format ("DKCP")
+  public static final int MAGIC = 0x50434B44;
+
+  // the version of the format (version 2 added the weights of the points)
+  public static final int VERSION = 2;
+
+  // the types of the algorithms
+  public static final int DYNAMIC_MP = 1;
+  public static final int HENZINGER_TREE = 2;
+  public static final int SHARDED_DYNAMIC_MP = 3;
+
+  private FileChannel channel;
+
+  private ByteBuffer buffer;
+
+  CheckpointWriter(String path, int type) throws IOException {
+
+    this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    this.buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+    putInt(MAGIC);
+    putInt(VERSION);
+    putInt(type);
+  }
+
+  public void putInt(int value) throws IOException {
+    ensure(4);
+    buffer.putInt(value);
+  }
+
+  public void putLong(long value) throws IOException {
+    ensure(8);
+    buffer.putLong(value);
+  }
+
+  public void putFloat(float value) throws IOException {
+    ensure(4);
+    buffer.putFloat(value);
+  }
+
+  public void putBoolean(boolean value) throws IOException {
+    putInt(value ? 1 : 0);
+  }
+
+  // writes the first length elements of the array
+  public void putInts(int[] values, int length) throws IOException {
+
+    putInt(length);
+
+    int i = 0;
+    while (i < length) {
+      ensure(4);
+      int count = Math.min(length - i, buffer.remaining()/4);
+      buffer.asIntBuffer().put(values, i, count);
+      buffer.position(buffer.position() + 4*count);
+      i += count;
+    }
+  }
+
+  public void putFloats(float[] values, int length) throws IOException {
+
+    putInt(length);
+
+    int i = 0;
+    while (i < length) {
+      ensure(4);
+      int count = Math.min(length - i, buffer.remaining()/4);
+      buffer.asFloatBuffer().put(values, i, count);
+      buffer.position(buffer.position() + 4*count);
+      i += count;
+    }
+  }
+
+  public void putLongs(long[] values, int length) throws IOException {
+
+    putInt(length);
+
+    int i = 0;
+    while (i < length) {
+      ensure(8);
+      int count = Math.min(length - i, buffer.remaining()/8);
+      buffer.asLongBuffer().put(values, i, count);
+      buffer.position(buffer.position() + 8*count);
+      i += count;
+    }
+  }
+
+  public void putInts(int[] values) throws IOException {
+    putInts(values, values.length);
+  }
+
+  public void putFloats(float[] values) throws IOException {
+    putFloats(values, values.length);
+  }
+
+  public void putLongs(long[] values) throws IOException {
+    putLongs(values, values.length);
+  }
+
+  // writes the buffer and closes the file
+  public void close() throws IOException {
+    flush();
+    channel.force(false);
+    channel.close();
+  }
+
+  // makes room for at least bytes bytes in the buffer
+  private void ensure(int bytes) throws IOException {
+    if (buffer.remaining() < bytes) {
+      flush();
+    }
+  }
+
+  private void flush() throws IOException {
+
+    buffer.flip();
+
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+
+    buffer.clear();
+  }
+}
@@ -0,0 +1,28 @@
+import java.io.*;
+
+/*
+
+converts a dataset from the text format to the binary format read by
+BinaryDataset, the output is written to the same path with the suffix .bin
+
+usage: java ConvertDataset <path>
+
+*/
+
+public class ConvertDataset {
+
+  public static void main(String[] args) throws IOException {
+
+    String path = args[0];
+
+    long s = System.nanoTime();
+
+    BinaryDataset.convert(path, path + ".bin");
+
+    long t = System.nanoTime() - s;
+
+    BinaryDataset dataset = new BinaryDataset(path + ".bin");
+
+    System.out.println("Converted " + dataset.n() + " points of dimension " + dataset.d() + " to " + path + ".bin in " + t/1000000 + " ms");
+  }
+}
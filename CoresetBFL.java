@@ -25,18 +25,26 @@ public class CoresetBFL {
   private KMeansPlusPlus kmeanspp;
 
   // store the (alpha, beta)-approximation
-  private int[][] clusters;
+  private int clusterCount;
+  private int[] clusterStart;
+  private int[] clusterMembers;
   private int[] clusterCenters;
 
-  // the input points we compute a coreset on
-  private float[][] points;
-  private float[] weights;
-  private int[] keys;
+  // the input points we compute a coreset on, the first n entries of buffers
+  // which are reused (and grown as needed) between constructions
+  private float[][] points = new float[0][];
+  private float[] weights = new float[0];
+  private int[] keys = new int[0];
+  private int n;
 
-  // the coreset we compute
-  private float[][] outPoints;
-  private float[] outWeights;
-  private int[] outKeys;
+  // buffers for the coreset construction, reused between constructions
+  private float[] clusterWeights;
+  private float[] prob = new float[0];
+  private float[] sums = new float[0];
+  private float[] dist = new float[0];
+  private float[][] clusterPoints = new float[0][];
+
+  private Random rng = new Random();
 
   public CoresetBFL(int k, Metric metric, int m) {
     this.k = k;
@@ -47,142 +55,164 @@ public class CoresetBFL {
     this.m = m;
 
     this.kmeanspp = new KMeansPlusPlus(k, metric);
+
+    this.clusterWeights = new float[k];
   }
 
-  // returns an epsilon-coreset given a weighted set (P, w) of a rho-metric space
-  // and an (alpha, beta)-approximation P --> B
-  public void construct(float[][] points, float[] weights, int[] keys, float lambda, float epsilon) {
+  // the size of the coresets constructed (the max of the coreset construction
+  // parameter and k), the output buffers passed to construct must hold this
+  // many points
+  public int capacity() {
+    return Math.max(this.m, k);
+  }
+
+  // clears the input points
+  public void clearInput() {
+    Arrays.fill(points, 0, n, null);
+    n = 0;
+  }
 
-    this.points = points;
-    this.weights = weights;
-    this.keys = keys;
+  // adds the first size points of a weighted set to the input (the points are
+  // not copied, so they must not change until the coreset is constructed)
+  public void addInput(float[][] points, float[] weights, int[] keys, int size) {
 
-    int n = this.points.length;
+    if (this.n + size > this.points.length) {
+      int capacity = Math.max(this.n + size, 2*this.points.length);
+      this.points = Arrays.copyOf(this.points, capacity);
+      this.weights = Arrays.copyOf(this.weights, capacity);
+      this.keys = Arrays.copyOf(this.keys, capacity);
+    }
+
+    System.arraycopy(points, 0, this.points, this.n, size);
+    System.arraycopy(weights, 0, this.weights, this.n, size);
+    System.arraycopy(keys, 0, this.keys, this.n, size);
+
+    this.n += size;
+  }
+
+  // writes an epsilon-coreset of the input (a weighted set (P, w) of a
+  // rho-metric space) into the out arrays, computed from an
+  // (alpha, beta)-approximation P --> B, and returns its size
+  public int construct(float lambda, float epsilon, float[][] outPoints, float[] outWeights, int[] outKeys) {
 
     // set size to max of coreset construction parameter or k
-    int m = Math.max(this.m, k);
+    int m = capacity();
 
     // if there aren't enough points
     if (n < m) {
-      outPoints = points;
-      outWeights = weights;
-      outKeys = keys;
-      return;
+      System.arraycopy(points, 0, outPoints, 0, n);
+      System.arraycopy(weights, 0, outWeights, 0, n);
+      System.arraycopy(keys, 0, outKeys, 0, n);
+      return n;
     }
 
     // get an (alpha, beta)-approximation
     approximate();
 
     // proceed with coreset construction
-    coreset(m);
+    return coreset(m, outPoints, outWeights, outKeys);
   }
 
   // constructs the coreset with m samples
-  private void coreset(int m) {
-
-    int n = this.points.length;
+  private int coreset(int m, float[][] outPoints, float[] outWeights, int[] outKeys) {
 
-    // arrays of total weight per cluster
-    float[] clusterWeights = new float[k];
+    if (prob.length < n) {
+      prob = new float[Math.max(n, 2*prob.length)];
+      sums = new float[prob.length];
+      dist = new float[prob.length];
+      clusterPoints = new float[prob.length][];
+    }
 
     // total cost the approximation
     float v = 0;
 
-    for (int i = 0; i < k; i++) {
+    // the sampling probabilities of the points, in the order of
+    // clusterMembers (which first hold the distances of the points from their
+    // cluster centers)
+    for (int i = 0; i < clusterCount; i++) {
+
+      int start = clusterStart[i];
+      int len = clusterStart[i + 1] - start;
+
+      for (int j = 0; j < len; j++) {
+        clusterPoints[j] = points[clusterMembers[start + j]];
+      }
+
+      metric.distances(points[clusterCenters[i]], clusterPoints, len, dist);
+      System.arraycopy(dist, 0, prob, start, len);
+
       clusterWeights[i] = 0;
-      for (int j = 0; j < clusters[i].length; j++) {
-        clusterWeights[i] += weights[clusters[i][j]];
-        v += weights[clusters[i][j]]*metric.d(points[clusters[i][j]], points[clusterCenters[i]]);
+      for (int e = start; e < start + len; e++) {
+        clusterWeights[i] += weights[clusterMembers[e]];
+        v += weights[clusterMembers[e]]*prob[e];
       }
     }
 
-    // the arrays of sampling probabilities
-    float[][] prob = new float[k][];
+    Arrays.fill(clusterPoints, 0, n, null);
 
-    for (int i = 0; i < k; i++) {
-      prob[i] = new float[clusters[i].length];
-      for (int j = 0; j < prob[i].length; j++) {
-        prob[i][j] = 0.5f*weights[clusters[i][j]]*metric.d(points[clusters[i][j]], points[clusterCenters[i]])/v;
-        prob[i][j] += 0.5f*weights[clusters[i][j]]/(k*clusterWeights[i]);
+    for (int i = 0; i < clusterCount; i++) {
+      for (int e = clusterStart[i]; e < clusterStart[i + 1]; e++) {
+        float dist = prob[e];
+        prob[e] = 0.5f*weights[clusterMembers[e]]*dist/v;
+        prob[e] += 0.5f*weights[clusterMembers[e]]/(k*clusterWeights[i]);
       }
     }
 
-    samplePoints(m, prob);
+    return samplePoints(m, outPoints, outWeights, outKeys);
   }
 
-  public void samplePoints(int m, float[][] prob) {
+  // samples m points into the out arrays, and returns the number sampled
+  private int samplePoints(int m, float[][] outPoints, float[] outWeights, int[] outKeys) {
 
-    ArrayList<float[]> tempOutPoints = new ArrayList<float[]>();
-    ArrayList<Float> tempOutWeights = new ArrayList<Float>();
-     ArrayList<Integer> tempOutKeys = new ArrayList<Integer>();
+    // the running sums of the probabilities, to sample by binary search (they
+    // are the sums a linear scan over the points would compute)
+    int total = clusterStart[clusterCount];
 
-    Random rng = new Random();
+    float t = 0;
+    for (int e = 0; e < total; e++) {
+      t += prob[e];
+      sums[e] = t;
+    }
+
+    int s = 0;
 
     // sample m points and place them into the corset output
     for (int l = 0; l < m; l++) {
 
       float r = rng.nextFloat();
-      float t = 0;
-
-      // sample a point
-      for (int i = 0; i < k; i++) {
-
-        int len = prob[i].length;
 
-        for (int j = 0; j < len; j++) {
+      // find the first point whose running sum is at least r (none if the
+      // rounded sum of the probabilities is below r)
+      int lo = 0;
+      int hi = total;
 
-          t += prob[i][j];
-          if (r <= t) {
-            int idx = clusters[i][j];
-            tempOutPoints.add(points[idx]);
-            tempOutWeights.add(weights[idx]/(m*prob[i][j]));
-            tempOutKeys.add(keys[idx]);
-
-            // break from loop
-            j = len;
-            i = k;
-          }
-        }
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (sums[mid] < r) lo = mid + 1;
+        else hi = mid;
       }
-    }
 
-    int s = tempOutPoints.size();
+      if (lo == total) continue;
 
-    outPoints = new float[s][];
-    outWeights = new float[s];
-    outKeys = new int[s];
-
-    for (int i = 0; i < s; i++) {
-      outPoints[i] = tempOutPoints.get(i);
-      outWeights[i] = tempOutWeights.get(i);
-      outKeys[i] = tempOutKeys.get(i);
+      int idx = clusterMembers[lo];
+      outPoints[s] = points[idx];
+      outWeights[s] = weights[idx]/(m*prob[lo]);
+      outKeys[s] = keys[idx];
+      s++;
     }
+
+    return s;
   }
 
   // computes an (alpha, beta)-approximation using kmeans++
   public void approximate() {
 
     // compute the (alpha beta)-approximation
-    kmeanspp.cluster(points, weights, keys);
+    kmeanspp.approximate(points, weights, n);
 
-    clusters = kmeanspp.getClusters();
+    clusterCount = kmeanspp.getClusterCount();
+    clusterStart = kmeanspp.getClusterStart();
+    clusterMembers = kmeanspp.getClusterMembers();
     clusterCenters = kmeanspp.getClusterCenters();
   }
-
-  // returns the points computed by the coreset
-  public float[][] getPoints() {
-    return outPoints;
-  }
-
-  // returns the weights computed by the coreset
-  public float[] getWeights() {
-    return outWeights;
-  }
-
-  // returns keys
-  public int[] getKeys() {
-    return outKeys;
-  }
-
-
 }
@@ -0,0 +1,54 @@
+/*
+
+an immutable copy of the coreset maintained by a dynamic algorithm
+
+the algorithm publishes a new snapshot after each update (or batch of
+updates), and since a snapshot never changes once published, any number of
+threads can read the latest one while the algorithm keeps updating
+
+the arrays returned by the accessors are those of the snapshot and must not be
+modified, the points may be shared with later snapshots
+
+*/
+
+final class CoresetSnapshot {
+
+  // the snapshot of an empty coreset
+  public static final CoresetSnapshot EMPTY = new CoresetSnapshot(0, new float[0][0], new float[0], new int[0]);
+
+  // the version of the coreset, which increases with every change
+  private final long version;
+
+  // the weighted points of the coreset and their keys
+  private final float[][] points;
+  private final float[] weights;
+  private final int[] keys;
+
+  CoresetSnapshot(long version, float[][] points, float[] weights, int[] keys) {
+    this.version = version;
+    this.points = points;
+    this.weights = weights;
+    this.keys = keys;
+  }
+
+  public long version() {
+    return version;
+  }
+
+  // the number of points in the coreset
+  public int size() {
+    return keys.length;
+  }
+
+  public float[][] points() {
+    return points;
+  }
+
+  public float[] weights() {
+    return weights;
+  }
+
+  public int[] keys() {
+    return keys;
+  }
+}
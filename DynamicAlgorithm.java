@@ -1,20 +1,107 @@
 import java.util.*;
 import java.io.*;
 import java.lang.Math;
+import java.util.concurrent.atomic.AtomicReference;
 
 // and abstract class for a dynamic clustering algorithm
 
 abstract class DynamicAlgorithm {
 
+  // the latest snapshot of the coreset, published by the algorithm after each
+  // update (or batch of updates) so that other threads can query it
+  protected final AtomicReference<CoresetSnapshot> snapshot = new AtomicReference<CoresetSnapshot>(CoresetSnapshot.EMPTY);
+
   // insert a point
   public abstract void insert(int key, float[] point);
 
+  // insert a point with the given weight, e.g. a representative standing for
+  // weight identical points (by default only unit weights are supported)
+  public void insert(int key, float[] point, float weight) {
+
+    checkWeight(weight);
+
+    if (weight != 1) {
+      throw new UnsupportedOperationException(name() + " does not support weighted points");
+    }
+
+    insert(key, point);
+  }
+
   // delete a point
   public abstract void delete(int key);
 
-  // cluster the points and return the solution as a treemap
+  // insert the points points[i] with keys keys[i]
+  public void insertAll(int[] keys, float[][] points) {
+    applyBatch(keys, points);
+  }
+
+  // delete the points with keys keys[i]
+  public void deleteAll(int[] keys) {
+    applyBatch(keys, new float[keys.length][]);
+  }
+
+  // move the point with the given key to new coordinates, keeping its weight
+  // (a point not present is inserted), by default the point is deleted and
+  // inserted again with unit weight
+  public void move(int key, float[] point) {
+    delete(key);
+    insert(key, point);
+  }
+
+  // apply a batch of updates in order, for each i the point points[i] is
+  // inserted with key keys[i], or if points[i] is null the point with key
+  // keys[i] is deleted
+  public void applyBatch(int[] keys, float[][] points) {
+    applyBatch(keys, points, null);
+  }
+
+  // as above, where the point points[i] is inserted with weight weights[i]
+  // (or with unit weight if weights is null), by default the updates are
+  // applied one at a time
+  public void applyBatch(int[] keys, float[][] points, float[] weights) {
+    for (int i = 0; i < keys.length; i++) {
+      if (points[i] == null) delete(keys[i]);
+      else if (weights == null) insert(keys[i], points[i]);
+      else insert(keys[i], points[i], weights[i]);
+    }
+  }
+
+  // cluster the points and return the solution as a treemap (from the latest
+  // snapshot of the coreset, so this may run concurrently with the updates)
   public abstract TreeMap<Integer, Integer> cluster();
 
+  // the latest snapshot of the coreset (which may be read from any thread)
+  public CoresetSnapshot coreset() {
+    return snapshot.get();
+  }
+
   // returns the name of the algorithm
   public abstract String name();
+
+  // returns the parameters of the algorithm as a list of key=value pairs
+  public String parameters() {
+    return "";
+  }
+
+  // writes the state of the algorithm to a file, from which the algorithm can
+  // be restored (by the static method restore of its class)
+  public abstract void checkpoint(String path) throws IOException;
+
+  // the cache of the solutions returned by cluster (or null if there is none)
+  public QueryCache queryCache() {
+    return null;
+  }
+
+  // throws an exception if the weight is not positive and finite
+  protected static void checkWeight(float weight) {
+    if (!(weight > 0) || Float.isInfinite(weight)) {
+      throw new IllegalArgumentException("the weight of a point must be positive and finite, got " + weight);
+    }
+  }
+
+  // the number of (expensive) reconstructions performed so far, used to tag
+  // the updates that triggered one
+  public long reconstructions() {
+    return 0;
+  }
 }
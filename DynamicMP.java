@@ -1,8 +1,12 @@
+import java.io.IOException;
 import java.lang.Math;
-import java.util.LinkedList;
 import java.util.ArrayList;
 import java.util.TreeMap;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /*
 
@@ -14,22 +18,13 @@ implementation of our dynamic data structure for maintaining a coreset
 public class DynamicMP extends DynamicAlgorithm {
 
   // the underlying metric space
-  private TreeMap<Integer, float[]> space;
+  private PointStore space;
 
-  // the nested collections of points for each layer
-  private LinkedList<TreeMap<Integer, Integer>> layers;
+  // NOTE: all of the following data structures refer to points by their slot
+  // in the space, keys are only used at the interface of this class
 
-  // the sampled medians for each layer
-  private LinkedList<TreeMap<Integer, Float>> samples;
-
-  // the clusters for each layer
-  private LinkedList<TreeMap<Integer, Integer>[]> clusters;
-
-  // the clusterd sorted by increasing distance from center
-  private LinkedList<TreeMap<Float, Integer>[]> sortedClusters;
-
-  // number of updates since reconstruction at each layer
-  private LinkedList<Integer> reconTimer;
+  // the layers of the data structure
+  private LayerStack stack;
 
   // metric used to evaluate distances
   private Metric metric;
@@ -45,8 +40,68 @@ public class DynamicMP extends DynamicAlgorithm {
   // number of points taken as medians each layer
   private int sampleSize;
 
+  // number of layers constructed so far
+  private long layersConstructed;
+
+  // number of updates so far, which versions the coreset
+  private long updates;
+
+  // the solution of the last query
+  private QueryCache cache;
+
+  // counters, gauges and timers of the instance
+  private DynamicMPMetrics metrics;
+
+  // copies of the points in the coreset by slot (created when the point first
+  // enters a snapshot, and shared by the snapshots after that)
+  private float[][] rows = new float[16][];
+
+  // source of randomness for sampling the medians
+  private Random rng;
+
+  // whether layers are constructed in parallel
+  private boolean parallel = true;
+
+  // minimum number of points (times samples) assigned by a single task
+  private static final int TASK_POINTS = 256;
+  private static final int TASK_WORK = 1 << 16;
+
+  // whether large reconstructions run in the background, and the one running
+  private boolean background = false;
+  private Rebuild rebuild;
+
+  // thread running the reconstructions in the background (created when needed)
+  private ExecutorService executor;
+
+  // reconstructions assigning fewer points (times samples) than this are not
+  // worth running in the background
+  private static final long BACKGROUND_WORK = 1L << 22;
+
+  // number of logged updates replayed onto a reconstruction per update, which
+  // must exceed one so that the log drains
+  private static final int REPLAY_PER_UPDATE = 8;
+
+  // number of slots copied into a reconstruction per update before it starts
+  private static final int SCAN_PER_UPDATE = 1024;
+
+  // number of layers by which the depth may exceed its steady state while a
+  // reconstruction runs in the background
+  private static final int EXTRA_DEPTH = 2;
+
   // constructer
   public DynamicMP(int k, Metric metric, float alpha, float beta, float epsilon) {
+    this(k, metric, alpha, beta, epsilon, new Random());
+  }
+
+  // constructer with a fixed seed, so that the layers constructed for a given
+  // sequence of updates are always the same
+  public DynamicMP(int k, Metric metric, float alpha, float beta, float epsilon, long seed) {
+    this(k, metric, alpha, beta, epsilon, new Random(seed));
+  }
+
+  private DynamicMP(int k, Metric metric, float alpha, float beta, float epsilon, Random rng) {
+
+    this.rng = rng;
 
     // the metric
     this.metric = metric;
@@ -62,19 +117,13 @@ public class DynamicMP extends DynamicAlgorithm {
     this.sampleSize = (int)Math.floor(alpha);
 
     // initialise the data structures
-    this.space = new TreeMap<Integer, float[]>();
-
-    this.layers = new LinkedList<TreeMap<Integer, Integer>>();
+    this.space = new PointStore();
 
-    this.layers.add(new TreeMap<Integer, Integer>());
+    this.stack = new LayerStack();
 
-    this.samples = new LinkedList<TreeMap<Integer, Float>>();
+    this.cache = new QueryCache(k, metric);
 
-    this.clusters = new LinkedList<TreeMap<Integer, Integer>[]>();
-
-    this.sortedClusters = new LinkedList<TreeMap<Float, Integer>[]>();
-
-    this.reconTimer = new LinkedList<Integer>();
+    this.metrics = new DynamicMPMetrics(this, this.cache);
   }
 
   /*
@@ -84,30 +133,44 @@ public class DynamicMP extends DynamicAlgorithm {
   */
 
   public void insert(int key, float[] point) {
+    this.insert(key, point, 1.0f);
+  }
 
-    // insert point into the metric space
-    this.space.put(key, point);
+  // insert a point with the given weight, which it carries into the weights of
+  // the samples it is assigned to
+  public void insert(int key, float[] point, float weight) {
 
-    // insert point into each layer
-    ListIterator<TreeMap<Integer, Integer>> layerIterator = layers.listIterator();
-    ListIterator<Integer> reconIterator = reconTimer.listIterator();
+    checkWeight(weight);
 
-    for (int i = 0; i < this.depth()-1; i++) {
+    this.insertIntoLayers(key, point, weight);
 
-      // insert point into layer
-      layerIterator.next().put(key, -1);
+    // check if we need to construct a new layer
+    this.layersConstructed += this.stack.reconstructFromLayer(this.depth() - 1, this.rng, this.space.data(), this.space.weights());
 
-      // decrement reconstruction timer for this layer
-      reconIterator.set(reconIterator.next()-1);
-    }
+    this.checkForReconstruction(1);
 
-    // insert point into unsampled layer
-    layerIterator.next().put(key, -1);
+    this.publishCoreset();
+  }
 
-    // check if we need to construct a new layer
-    this.reconstructFromLayer(this.depth() - 1);
+  // insert a point into the space and each layer (constructs no layers)
+  private void insertIntoLayers(int key, float[] point, float weight) {
+
+    this.updates++;
+
+    // insert point into the metric space
+    int slot = this.space.put(key, point, weight);
+
+    // the slot may have held another point
+    if (slot < this.rows.length) {
+      this.rows[slot] = null;
+    }
 
-    this.checkForReconstruction();
+    // insert point into each layer
+    this.stack.insert(slot, 0);
+
+    if (this.rebuild != null && slot < this.rebuild.scanned) {
+      this.rebuild.log(slot);
+    }
   }
 
   /*
@@ -118,236 +181,964 @@ public class DynamicMP extends DynamicAlgorithm {
 
   public void delete(int key) {
 
+    // if this point is not in the data structure, do nothing
+    if (!this.deleteFromLayers(key)) return;
+
+    // check if data structure needs to be reconstructed
+    this.checkForReconstruction(1);
+
+    this.publishCoreset();
+  }
+
+  // delete a point from the space and each layer, returns false if the point
+  // is not in the data structure
+  private boolean deleteFromLayers(int key) {
+
     // delete point from the metric space
-    this.space.remove(key);
+    int slot = this.space.remove(key);
+
+    if (slot < 0) return false;
+
+    this.updates++;
 
     // delete point from each layer
-    ListIterator<TreeMap<Integer, Integer>> layerIterator = this.layers.listIterator();
-    ListIterator<Integer> reconIterator = this.reconTimer.listIterator();
+    this.stack.delete(slot, 0);
 
-    for (int i = 0; i < this.depth()-1; i++) {
+    if (this.rebuild != null && slot < this.rebuild.scanned) {
+      this.rebuild.log(~slot);
+    }
 
-      // delete point from layer
-      int clusterIndex = layerIterator.next().remove(key);
+    return true;
+  }
 
-      // decrement reconstruction timer for this layer
-      reconIterator.set(reconIterator.next()-1);
+  /*
 
-      // check if point is in a cluster at this layer
-      if (clusterIndex >= 0) {
+  move a point to new coordinates, keeping its key and weight: the point keeps
+  its slot and is moved within the layers in one pass (see LayerStack.move), so
+  it counts as a single update towards the reconstructions
 
-        // get the cluster and set of sampled points
-        TreeMap<Integer, Integer> cluster = this.clusters.get(i)[clusterIndex];
-        TreeMap<Integer, Float> layerSamples = this.samples.get(i);
+  while a reconstruction runs in the background, whose thread may be reading
+  the coordinates of the point, the point is deleted and inserted again instead
 
-        // remove point from this cluster
-        cluster.remove(key);
+  */
 
-        // check if the point was sampled in this layer
-        if (layerSamples.containsKey(key)) {
+  public void move(int key, float[] point) {
 
-          // remove the point from the samples
-          layerSamples.remove(key);
+    int slot = this.space.slot(key);
 
-          // replace sampled point with the next clostsest point in the cluster
-          if (!cluster.isEmpty()) {
-            Integer newCenter = getClosestPoint(cluster, this.sortedClusters.get(i)[clusterIndex]);
-            layerSamples.put(newCenter, (float)cluster.size());
-          }
-        }
+    // a point not in the data structure is inserted
+    if (slot < 0) {
+      this.insert(key, point);
+      return;
+    }
 
-        // check if data structure needs to be reconstructed
-        this.checkForReconstruction();
-        return;
+    float weight = this.space.weight(slot);
+
+    if (this.rebuild != null) {
+
+      this.deleteFromLayers(key);
+      this.insertIntoLayers(key, point, weight);
+
+      this.layersConstructed += this.stack.reconstructFromLayer(this.depth() - 1, this.rng, this.space.data(), this.space.weights());
+
+      this.checkForReconstruction(2);
+    }
+    else {
+
+      this.updates++;
+
+      // overwrite the point in its slot
+      this.space.put(key, point, weight);
+
+      if (slot < this.rows.length) {
+        this.rows[slot] = null;
+      }
+
+      this.stack.move(slot);
+
+      this.layersConstructed += this.stack.reconstructFromLayer(this.depth() - 1, this.rng, this.space.data(), this.space.weights());
+
+      this.checkForReconstruction(1);
+    }
+
+    this.publishCoreset();
+  }
+
+  /*
+
+  apply a batch of updates: the updates are applied to the layers one after
+  the other and the layers are only checked for reconstruction once the whole
+  batch is applied, so at most one reconstruction is made per batch (from the
+  highest layer whose timer ran out during the batch)
+
+  */
+
+  public void applyBatch(int[] keys, float[][] points, float[] weights) {
+
+    if (weights != null) {
+      for (int i = 0; i < keys.length; i++) {
+        if (points[i] != null) checkWeight(weights[i]);
       }
     }
 
-    // remove point from unslampled layer
-    layerIterator.next().remove(key);
+    int updates = 0;
 
-    // check if data structure needs to be reconstructed
-    this.checkForReconstruction();
+    for (int i = 0; i < keys.length; i++) {
+      if (points[i] != null) {
+        this.insertIntoLayers(keys[i], points[i], weights == null ? 1.0f : weights[i]);
+        updates++;
+      }
+      else if (this.deleteFromLayers(keys[i])) {
+        updates++;
+      }
+    }
+
+    if (updates == 0) return;
+
+    this.checkForReconstruction(updates);
+
+    // construct new layers if the last layer grew too large
+    this.layersConstructed += this.stack.reconstructFromLayer(this.depth() - 1, this.rng, this.space.data(), this.space.weights());
+
+    this.publishCoreset();
   }
 
-  // return the closest live point in a cluster
-  private Integer getClosestPoint(TreeMap<Integer, Integer> cluster, TreeMap<Float, Integer> sortedCluster) {
+  // check whether some layer needs to be reconstructed after the given number
+  // of updates
+  private void checkForReconstruction(int updates) {
+
+    // make progress on a reconstruction running in the background
+    if (this.rebuild != null) {
+      if (this.rebuild.scanned < Integer.MAX_VALUE)
+        this.rebuild.scan(SCAN_PER_UPDATE*updates);
+      else
+        this.replay(updates);
+    }
+
+    int i = this.stack.expiredLayer(0);
+
+    if (i < 0) return;
+
+    if (this.rebuild != null && this.rebuild.layer <= i) {
+
+      // the reconstruction running in the background covers layer i, but the
+      // lower layers of the current stack (which it does not share with the
+      // new one) are still reconstructed from the highest expired layer that
+      // is cheap to reconstruct, which also reconstructs the expired layers
+      // below it (otherwise layers would pile up below an expired layer too
+      // large to reconstruct here until the reconstruction completes)
+      for (int j = this.stack.expiredLayer(this.rebuild.layer + 1); j >= 0; j = this.stack.expiredLayer(j + 1)) {
+        if ((long)this.stack.layers.get(j).size()*this.sampleSize < BACKGROUND_WORK) {
+          this.layersConstructed += this.stack.reconstructFromLayer(j, this.rng, this.space.data(), this.space.weights());
+          return;
+        }
+      }
+
+      // if none of them is cheap, the depth is still bounded by reconstructing
+      // from the deepest expired layer within the bound once it is exceeded
+      // (the layers above the bound that are not expired halve the points, so
+      // the new layers stay within it)
+      int maxDepth = this.steadyDepth() + EXTRA_DEPTH;
+
+      if (this.depth() > maxDepth) {
 
-    // get the closest points in sortedCluster
-    Integer x = sortedCluster.get(sortedCluster.firstKey());
+        int deepest = -1;
+        for (int j = this.stack.expiredLayer(this.rebuild.layer + 1); j >= 0 && j < maxDepth; j = this.stack.expiredLayer(j + 1)) {
+          deepest = j;
+        }
 
-    while (!cluster.containsKey(x)) {
+        if (deepest >= 0) {
+          this.layersConstructed += this.stack.reconstructFromLayer(deepest, this.rng, this.space.data(), this.space.weights());
+        }
+      }
 
-      // remove this entry and get the next one
-      sortedCluster.pollFirstEntry();
-      x = sortedCluster.get(sortedCluster.firstKey());
+      return;
+    }
 
+    // a reconstruction from a higher layer supersedes the running one
+    if (this.rebuild != null) {
+      this.cancelRebuild();
     }
 
-    return x;
+    if (this.background && (long)this.stack.layers.get(i).size()*this.sampleSize >= BACKGROUND_WORK) {
+      this.startRebuild(i);
+    }
+    else {
+
+      // reconstruct data structure starting from layer i
+      this.layersConstructed += this.stack.reconstructFromLayer(i, this.rng, this.space.data(), this.space.weights());
+    }
   }
 
-  // check whether some layer needs to be reconstructed
-  private void checkForReconstruction() {
+  /*
 
-    for (int i = 0; i < this.reconTimer.size(); i++) {
-      if (this.reconTimer.get(i) <= 0) {
+  reconstruction in the background: a new stack, sharing layers 0, ..., i-1
+  with the current one, is constructed from the points of layer i on another
+  thread while the current stack keeps handling updates and queries
 
-        // reconstruct data structure starting from layer i
-        reconstructFromLayer(i);
-        return;
+  the points of layer i and the indices of the points are first copied into
+  the new stack a few slots per update (so that no update copies the whole
+  layer), the updates to the slots already copied are logged and once the new
+  stack is constructed they are replayed onto it (a few per update) after
+  which the stacks are swapped
+
+  the slots of deleted points are not recycled until the swap, so the points
+  read by the other thread are never overwritten
+
+  */
+
+  private class Rebuild implements Runnable {
+
+    // the layer reconstructed
+    final int layer;
+
+    // the new stack (only touched by the other thread from the start of the
+    // construction until it is constructed) and the inputs of the
+    // construction, captured when it starts
+    private LayerStack next;
+    private float[] data;
+    private float[] weights;
+    private Random rng;
+
+    // the new stack, set by the other thread once it is constructed
+    private volatile LayerStack result;
+    private volatile boolean cancelled;
+
+    // number of layers constructed by the other thread
+    private int constructed;
+
+    // the slots below scanned have been copied into the new stack (all of
+    // them once scanned is Integer.MAX_VALUE, when the construction starts)
+    int scanned;
+
+    // the updates to the copied slots (the slot of an insertion, or the
+    // complement of the slot of a deletion) and how many of them have been
+    // replayed
+    private int[] log;
+    private int logSize;
+    private int replayed;
+
+    Rebuild(int layer) {
+      this.layer = layer;
+      this.next = new LayerStack(stack, layer);
+      this.rng = new Random(DynamicMP.this.rng.nextLong());
+      this.log = new int[64];
+    }
+
+    // copies the next count slots into the new stack, and starts the
+    // construction once every slot has been copied
+    void scan(int count) {
+
+      int end = (int)Math.min(space.capacity(), (long)this.scanned + count);
+
+      for (; this.scanned < end; this.scanned++) {
+        this.next.copySlot(stack, this.scanned, this.layer);
+      }
+
+      if (this.scanned < space.capacity()) return;
+
+      this.scanned = Integer.MAX_VALUE;
+
+      this.data = space.data();
+      this.weights = space.weights();
+
+      executor.execute(this);
+    }
+
+    void log(int update) {
+      if (logSize == log.length) {
+        log = Arrays.copyOf(log, 2*log.length);
+      }
+      log[logSize++] = update;
+    }
+
+    public void run() {
+
+      long points = 0;
+
+      // construct the new layers
+      while (!cancelled && next.layers.get(next.depth()-1).size() > sampleSize) {
+        points += next.layers.get(next.depth()-1).size();
+        next.constructLayer(rng, data, weights);
+        constructed++;
       }
+
+      if (constructed > 0) {
+        metrics.reconstructed(layer, points);
+      }
+
+      result = next;
     }
   }
 
-  // reconstruct the layers starting from layer i
-  private void reconstructFromLayer(int i) {
+  // the depth of the layers when each layer clusters a beta fraction of its
+  // points, which is only exceeded while expired layers are not reconstructed
+  private int steadyDepth() {
+    double ratio = Math.max(1.0, (double)this.space.size()/this.sampleSize);
+    return 2 + (int)Math.ceil(Math.log(ratio)/-Math.log(1 - this.beta));
+  }
+
+  // starts reconstructing the data structure from layer i in the background
+  private void startRebuild(int i) {
 
-    // delete the lower layers
-    while (this.depth() - 1 > i) {
-      this.layers.removeLast();
-      this.samples.removeLast();
-      this.clusters.removeLast();
-      this.sortedClusters.removeLast();
-      this.reconTimer.removeLast();
+    if (this.executor == null) {
+      this.executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "DynamicMP reconstruction");
+        thread.setDaemon(true);
+        return thread;
+      });
     }
 
-    // construct the new layers
-    while(this.layers.getLast().size() > this.sampleSize) {
-      this.constructLayer();
+    this.space.deferFrees();
+
+    this.rebuild = new Rebuild(i);
+    this.rebuild.scan(SCAN_PER_UPDATE);
+  }
+
+  // abandons the reconstruction running in the background
+  private void cancelRebuild() {
+    this.rebuild.cancelled = true;
+    this.rebuild = null;
+    this.space.releaseFrees();
+  }
+
+  // replays a few logged updates for each of the given number of updates onto
+  // the reconstructed stack (if it is ready) and swaps it in once the log is empty
+  private void replay(int updates) {
+
+    LayerStack next = this.rebuild.result;
+    if (next == null) return;
+
+    int i = this.rebuild.layer;
+
+    for (long r = 0; r < (long)REPLAY_PER_UPDATE*updates && this.rebuild.replayed < this.rebuild.logSize; r++) {
+
+      int update = this.rebuild.log[this.rebuild.replayed++];
+
+      if (update >= 0) {
+        next.insert(update, i);
+        this.layersConstructed += next.reconstructFromLayer(next.depth() - 1, this.rng, this.space.data(), this.space.weights());
+      }
+      else {
+        next.delete(~update, i);
+      }
     }
+
+    if (this.rebuild.replayed < this.rebuild.logSize) return;
+
+    // the timers of the shared layers were updated through the current stack
+    System.arraycopy(this.stack.reconTimer, 0, next.reconTimer, 0, i);
+
+    this.stack = next;
+    this.layersConstructed += this.rebuild.constructed;
+
+    this.rebuild = null;
+    this.space.releaseFrees();
   }
 
-  // creates a new layer
-  private void constructLayer() {
+  /*
+
+  the layers of the data structure, together with the index of each point into
+  them
+
+  */
+
+  private class LayerStack {
+
+    // the nested collections of points for each layer (mapping each point to
+    // the index of its cluster in the layer, or -1 if it is not clustered)
+    ArrayList<IntIntMap> layers;
+
+    // the sampled medians for each layer (mapping each to its weight)
+    ArrayList<IntFloatMap> samples;
+
+    // the clusters for each layer, sorted by increasing distance from center
+    ArrayList<SortedClusters> clusters;
 
-    // get the last layer
-    TreeMap<Integer, Integer> currentLayer = this.layers.getLast();
+    // number of updates until reconstruction at each layer (all but the last)
+    int[] reconTimer;
 
-    // place the points contained in the unsampled layer in an array
-    Integer[] points = currentLayer.keySet().toArray(new Integer[0]);
+    // for each slot, the deepest layer containing the point (the layer where it
+    // is clustered, or the last layer) and the index of its cluster in that
+    // layer (or -1 if it is in the last layer), as well as the position of the
+    // point in the clusters of that layer
+    int[] slotLayer;
+    int[] slotCluster;
+    int[] slotEntry;
 
-    int n = points.length;
-    Random rng = new Random();
+    // an empty stack
+    LayerStack() {
 
-    // sample points as centers from this set
-    TreeMap<Integer, Float> layerSamples = new TreeMap<Integer, Float>();
+      this.layers = new ArrayList<IntIntMap>();
 
-    for (int i = 0; i < this.sampleSize; i++) {
-      Integer sample = points[rng.nextInt(n)];
-      layerSamples.put(sample, 0.0f);
+      this.layers.add(new IntIntMap());
+
+      this.samples = new ArrayList<IntFloatMap>();
+
+      this.clusters = new ArrayList<SortedClusters>();
+
+      this.reconTimer = new int[8];
+
+      this.slotLayer = new int[16];
+      this.slotCluster = new int[16];
+      this.slotEntry = new int[16];
     }
 
-    // place sampled points in array
-    Integer[] layerSamplesArr = layerSamples.keySet().toArray(new Integer[0]);
+    // a stack sharing layers 0, ..., i-1 with other, whose last layer i is
+    // empty until the slots are copied from other (see copySlot)
+    LayerStack(LayerStack other, int i) {
 
-    int m = layerSamplesArr.length;
+      this.layers = new ArrayList<IntIntMap>(other.layers.subList(0, i));
 
-    // find distance from each point in the set from the sampled points
-    float[] dist = new float[n];
+      this.layers.add(new IntIntMap(other.layers.get(i).size()));
 
-    // find an assignment of the points to the centers
-    int[] assignment = new int[n];
+      this.samples = new ArrayList<IntFloatMap>(other.samples.subList(0, i));
 
-    // find how many points are assigned to each cluster center
-    int[] weights = new int[m];
+      this.clusters = new ArrayList<SortedClusters>(other.clusters.subList(0, i));
 
-    for (int i = 0; i < n; i++) {
+      this.reconTimer = new int[Math.max(8, other.reconTimer.length)];
 
-      dist[i] = Float.POSITIVE_INFINITY;
-      assignment[i] = 0;
-      for (int j = 0; j < m; j++) {
-        float x = this.metric.d(this.space.get(points[i]), this.space.get(layerSamplesArr[j]));
-        if (x < dist[i]) {
-          dist[i] = x;
-          assignment[i] = j;
-        }
+      this.slotLayer = new int[16];
+      this.slotCluster = new int[16];
+      this.slotEntry = new int[16];
+    }
+
+    // copies the indices of slot from other, a point of layer i of other is
+    // added to the last layer i of this stack (where it is not clustered)
+    void copySlot(LayerStack other, int slot, int i) {
+
+      this.ensureSlot(slot);
+
+      if (other.layers.get(i).containsKey(slot)) {
+        this.layers.get(i).put(slot, -1);
+        this.slotLayer[slot] = i;
+        this.slotCluster[slot] = -1;
+      }
+      else if (slot < other.slotLayer.length) {
+        this.slotLayer[slot] = other.slotLayer[slot];
+        this.slotCluster[slot] = other.slotCluster[slot];
+        this.slotEntry[slot] = other.slotEntry[slot];
       }
-      weights[assignment[i]]++;
     }
 
-    // set weights
-    for (int i = 0; i < m; i++) {
-      layerSamples.put(layerSamplesArr[i], (float)weights[i]);
+    // returns the number of layers
+    int depth() {
+      return this.layers.size();
     }
 
-    // compute the value nu
-    float[] distCopy = dist.clone();
-    Arrays.sort(distCopy);
-    float nu = distCopy[(int)Math.ceil(n*this.beta)]; // USE LINEAR SEARCH FOR O(log n) SPEEDUP!!
+    // insert a point into layers from, ..., depth()-1
+    void insert(int slot, int from) {
 
-    // compute the clustering at this layer and create new layer of unclustered points
-    @SuppressWarnings("unchecked")
-    TreeMap<Integer, Integer>[] layerClustering = new TreeMap[m];
+      // insert point into each layer
+      for (int i = from; i < this.depth()-1; i++) {
 
-    @SuppressWarnings("unchecked")
-    TreeMap<Float, Integer>[] layerSortedClustering = new TreeMap[m];
+        // insert point into layer
+        this.layers.get(i).put(slot, -1);
 
-    TreeMap<Integer, Integer> newLayer = new TreeMap<Integer, Integer>();
+        // decrement reconstruction timer for this layer
+        this.reconTimer[i]--;
+      }
+
+      // insert point into unsampled layer
+      this.layers.get(this.depth()-1).put(slot, -1);
+
+      this.ensureSlot(slot);
 
-    for (int i = 0; i < m; i++) {
-      layerClustering[i] = new TreeMap<Integer, Integer>();
-      layerSortedClustering[i] = new TreeMap<Float, Integer>();
+      this.slotLayer[slot] = this.depth()-1;
+      this.slotCluster[slot] = -1;
     }
 
-    for (int i = 0; i < n; i++) {
-      if (dist[i] <= nu) {
-        layerClustering[assignment[i]].put(points[i], points[i]);
-        layerSortedClustering[assignment[i]].put(dist[i], points[i]);
-        currentLayer.put(points[i], assignment[i]);
+    // delete a point from layers from, ..., depth()-1
+    void delete(int slot, int from) {
+
+      // the deepest layer containing the point and its cluster in this layer
+      int owner = this.slotLayer[slot];
+      int clusterIndex = this.slotCluster[slot];
+
+      // delete point from each layer down to the deepest one
+      for (int i = from; i <= owner; i++) {
+        this.layers.get(i).remove(slot, -1);
+      }
+
+      // decrement reconstruction timers for these layers (the last layer has none)
+      for (int i = from; i <= Math.min(owner, this.depth()-2); i++) {
+        this.reconTimer[i]--;
+      }
+
+      // check if point is in a cluster at its deepest layer
+      if (clusterIndex >= 0 && owner >= from) {
+        this.leaveCluster(slot, owner, clusterIndex);
+      }
+    }
+
+    // move a point of layers 0, ..., depth()-1 whose coordinates changed: it
+    // leaves its cluster (whose distances no longer hold for it) and is left
+    // unclustered in the layers containing it and added to the layers below
+    // them, as an insertion would be, so each timer runs down once
+    void move(int slot) {
+
+      int owner = this.slotLayer[slot];
+      int clusterIndex = this.slotCluster[slot];
+
+      if (clusterIndex >= 0) {
+        this.leaveCluster(slot, owner, clusterIndex);
+      }
+
+      // the point is unclustered in each layer
+      for (int i = 0; i < this.depth(); i++) {
+        this.layers.get(i).put(slot, -1);
+      }
+
+      for (int i = 0; i < this.depth()-1; i++) {
+        this.reconTimer[i]--;
+      }
+
+      this.slotLayer[slot] = this.depth()-1;
+      this.slotCluster[slot] = -1;
+    }
+
+    // removes a point from its cluster at layer owner, replacing it as the
+    // sample of the cluster if it was one
+    private void leaveCluster(int slot, int owner, int clusterIndex) {
+
+      // get the clusters and set of sampled points
+      SortedClusters layerClusters = this.clusters.get(owner);
+      IntFloatMap layerSamples = this.samples.get(owner);
+
+      // remove point from its cluster (its weight is kept by the space until
+      // the slot is reused)
+      layerClusters.remove(clusterIndex, this.slotEntry[slot], space.weight(slot));
+
+      // check if the point was sampled in this layer
+      if (layerSamples.containsKey(slot)) {
+
+        // remove the point from the samples
+        layerSamples.remove(slot, 0);
+
+        // replace sampled point with the next clostsest point in the cluster
+        if (!layerClusters.isEmpty(clusterIndex)) {
+          int newCenter = layerClusters.closest(clusterIndex);
+          layerSamples.put(newCenter, layerClusters.weight(clusterIndex));
+          metrics.sampleReplaced();
+        }
+      }
+    }
+
+    // the first layer from layer from whose reconstruction timer has run out (or -1)
+    int expiredLayer(int from) {
+
+      for (int i = from; i < this.depth()-1; i++) {
+        if (this.reconTimer[i] <= 0) return i;
+      }
+
+      return -1;
+    }
+
+    // reconstruct the layers starting from layer i, returns the number of
+    // layers constructed
+    int reconstructFromLayer(int i, Random rng, float[] data, float[] weights) {
+
+      // delete the lower layers
+      if (this.depth() - 1 > i) {
+
+        int depth = this.depth();
+        this.layers.subList(i+1, depth).clear();
+        this.samples.subList(i, depth-1).clear();
+        this.clusters.subList(i, depth-1).clear();
+
+        // layer i is now the last layer of all its points
+        IntIntMap lastLayer = this.layers.get(i);
+        for (int j = lastLayer.first(); j >= 0; j = lastLayer.next(j)) {
+          int slot = lastLayer.keyAt(j);
+          lastLayer.setValueAt(j, -1);
+          this.slotLayer[slot] = i;
+          this.slotCluster[slot] = -1;
+        }
+      }
+
+      // construct the new layers
+      int constructed = 0;
+      long points = 0;
+      while(this.layers.get(this.depth()-1).size() > sampleSize) {
+        points += this.layers.get(this.depth()-1).size();
+        this.constructLayer(rng, data, weights);
+        constructed++;
+      }
+
+      if (constructed > 0) {
+        metrics.reconstructed(i, points);
+      }
+
+      return constructed;
+    }
+
+    // creates a new layer from the points of the last layer, whose coordinates
+    // are read from data and whose weights are read from weights
+    void constructLayer(Random rng, float[] data, float[] weights) {
+
+      long start = System.nanoTime();
+
+      // get the last layer
+      int layerIndex = this.depth()-1;
+      IntIntMap currentLayer = this.layers.get(layerIndex);
+
+      // place the slots of the points contained in the unsampled layer in an array
+      int n = currentLayer.size();
+      int[] points = new int[n];
+
+      int l = 0;
+      for (int i = currentLayer.first(); i >= 0; i = currentLayer.next(i)) {
+        points[l++] = currentLayer.keyAt(i);
+      }
+
+      // sample points as centers from this set
+      IntFloatMap layerSamples = new IntFloatMap(sampleSize);
+
+      for (int i = 0; i < sampleSize; i++) {
+        int sample = points[rng.nextInt(n)];
+        layerSamples.put(sample, 0.0f);
+      }
+
+      // place sampled points in array
+      int m = layerSamples.size();
+      int[] layerSamplesArr = new int[m];
+
+      l = 0;
+      for (int i = layerSamples.first(); i >= 0; i = layerSamples.next(i)) {
+        layerSamplesArr[l++] = layerSamples.keyAt(i);
+      }
+
+      // place the sampled points one after the other in a single block
+      int d = space.dim();
+
+      float[] sampleBlock = new float[m*d];
+
+      for (int j = 0; j < m; j++) {
+        System.arraycopy(data, layerSamplesArr[j]*d, sampleBlock, j*d, d);
+      }
+
+      // find distance from each point in the set from the sampled points
+      float[] dist = new float[n];
+
+      // find an assignment of the points to the centers
+      int[] assignment = new int[n];
+
+      // assign the points to the centers, which also finds the total weight of
+      // the points assigned to each cluster center (as the results for each
+      // point do not depend on the order in which they are computed, the layer
+      // is the same whether or not this runs in parallel, up to the rounding of
+      // the sums of weights that are not whole numbers)
+      boolean split = parallel && ForkJoinPool.getCommonPoolParallelism() > 1;
+
+      Assignment task = new Assignment(points, 0, n, data, weights, sampleBlock, m, dist, assignment, split);
+
+      if (split && (long)n*m >= 2L*TASK_WORK) {
+        ForkJoinPool.commonPool().invoke(task);
       }
       else {
-        currentLayer.put(points[i], -1);
-        newLayer.put(points[i], -1);
+        task.compute();
+      }
+
+      // set weights
+      for (int i = 0; i < m; i++) {
+        layerSamples.put(layerSamplesArr[i], task.weights[i]);
+      }
+
+      // compute the value nu
+      float[] distCopy = dist.clone();
+      if (parallel) Arrays.parallelSort(distCopy);
+      else Arrays.sort(distCopy);
+      float nu = distCopy[(int)Math.ceil(n*beta)]; // USE LINEAR SEARCH FOR O(log n) SPEEDUP!!
+
+      // compute the clustering at this layer and create new layer of unclustered points
+      SortedClusters layerClustering = new SortedClusters(m, points, assignment, dist, nu, weights);
+
+      for (int e = 0; e < layerClustering.entryCount(); e++) {
+        this.slotEntry[layerClustering.slotAt(e)] = e;
+      }
+
+      IntIntMap newLayer = new IntIntMap(n - (int)Math.ceil(n*beta));
+
+      for (int i = 0; i < n; i++) {
+        if (dist[i] <= nu) {
+          currentLayer.put(points[i], assignment[i]);
+          this.slotLayer[points[i]] = layerIndex;
+          this.slotCluster[points[i]] = assignment[i];
+        }
+        else {
+          currentLayer.put(points[i], -1);
+          newLayer.put(points[i], -1);
+          this.slotLayer[points[i]] = layerIndex + 1;
+          this.slotCluster[points[i]] = -1;
+        }
       }
+
+      // update the data structures
+      this.layers.add(newLayer);
+
+      this.samples.add(layerSamples);
+
+      this.clusters.add(layerClustering);
+
+      if (layerIndex >= this.reconTimer.length) {
+        this.reconTimer = Arrays.copyOf(this.reconTimer, 2*this.reconTimer.length);
+      }
+
+      this.reconTimer[layerIndex] = (int)Math.ceil(n*tau);
+
+      metrics.layerConstructed(System.nanoTime() - start);
+    }
+
+    // writes the layers to a checkpoint
+    void write(CheckpointWriter out) throws IOException {
+
+      out.putInt(this.depth());
+
+      for (int i = 0; i < this.depth(); i++) {
+        this.layers.get(i).write(out);
+      }
+
+      for (int i = 0; i < this.depth()-1; i++) {
+        this.samples.get(i).write(out);
+        this.clusters.get(i).write(out);
+      }
+
+      out.putInts(this.reconTimer, this.depth()-1);
+
+      out.putInts(this.slotLayer);
+      out.putInts(this.slotCluster);
+      out.putInts(this.slotEntry);
     }
 
-    // update the data structures
-    this.layers.add(newLayer);
+    // reads the layers written by write
+    LayerStack(CheckpointReader in) throws IOException {
 
-    this.samples.add(layerSamples);
+      int depth = in.getInt();
 
-    this.clusters.add(layerClustering);
+      this.layers = new ArrayList<IntIntMap>(depth);
+      this.samples = new ArrayList<IntFloatMap>(depth);
+      this.clusters = new ArrayList<SortedClusters>(depth);
 
-    this.sortedClusters.add(layerSortedClustering);
+      for (int i = 0; i < depth; i++) {
+        this.layers.add(IntIntMap.read(in));
+      }
+
+      for (int i = 0; i < depth-1; i++) {
+        this.samples.add(IntFloatMap.read(in));
+        this.clusters.add(SortedClusters.read(in));
+      }
+
+      this.reconTimer = in.getInts(8);
+
+      this.slotLayer = in.getInts();
+      this.slotCluster = in.getInts();
+      this.slotEntry = in.getInts();
+    }
 
-    this.reconTimer.add((int)Math.ceil(n*this.tau));
+    // grows the per slot arrays to hold slot
+    private void ensureSlot(int slot) {
+      if (slot >= this.slotLayer.length) {
+        this.slotLayer = Arrays.copyOf(this.slotLayer, 2*slot);
+        this.slotCluster = Arrays.copyOf(this.slotCluster, 2*slot);
+        this.slotEntry = Arrays.copyOf(this.slotEntry, 2*slot);
+      }
+    }
+  }
+
+  // task assigning the points points[from], ..., points[to - 1] to their closest
+  // samples, it splits into subtasks (each with its own histogram of weights)
+  // whose histograms are merged once they complete
+  private class Assignment extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] points;
+    private int from;
+    private int to;
+
+    // the points of the space, their weights and the samples placed in a single block
+    private float[] data;
+    private float[] pointWeights;
+    private float[] sampleBlock;
+    private int m;
+
+    // where to store the distance and assignment of each point
+    private float[] dist;
+    private int[] assignment;
+
+    // whether to split into subtasks
+    private boolean split;
+
+    // total weight of the points assigned to each sample
+    float[] weights;
+
+    Assignment(int[] points, int from, int to, float[] data, float[] pointWeights, float[] sampleBlock, int m, float[] dist, int[] assignment, boolean split) {
+      this.points = points;
+      this.from = from;
+      this.to = to;
+      this.data = data;
+      this.pointWeights = pointWeights;
+      this.sampleBlock = sampleBlock;
+      this.m = m;
+      this.dist = dist;
+      this.assignment = assignment;
+      this.split = split;
+      this.weights = new float[m];
+    }
+
+    protected void compute() {
+
+      // split the range in two while the halves still have enough work
+      if (split && to - from >= 2*TASK_POINTS && (long)(to - from)*m >= 2L*TASK_WORK) {
+
+        int mid = (from + to) >>> 1;
+
+        Assignment left = new Assignment(points, from, mid, data, pointWeights, sampleBlock, m, dist, assignment, true);
+        Assignment right = new Assignment(points, mid, to, data, pointWeights, sampleBlock, m, dist, assignment, true);
+
+        invokeAll(left, right);
+
+        for (int j = 0; j < m; j++) {
+          weights[j] = left.weights[j] + right.weights[j];
+        }
+
+        return;
+      }
+
+      int d = sampleBlock.length/m;
+
+      // the point currently being assigned
+      float[] point = new float[d];
+
+      // comparison distances from the current point to each sampled point
+      float[] sampleDist = new float[m];
+
+      for (int i = from; i < to; i++) {
+
+        System.arraycopy(data, points[i]*d, point, 0, d);
+        metric.cds(point, sampleBlock, m, sampleDist);
+
+        dist[i] = Float.POSITIVE_INFINITY;
+        assignment[i] = 0;
+        for (int j = 0; j < m; j++) {
+          if (sampleDist[j] < dist[i]) {
+            dist[i] = sampleDist[j];
+            assignment[i] = j;
+          }
+        }
+        dist[i] = metric.cdToD(dist[i]);
+        weights[assignment[i]] += pointWeights[points[i]];
+      }
+    }
+  }
+
+  // enables or disables the parallel construction of layers (which does not
+  // change the layers constructed)
+  public void setParallel(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  // enables or disables the reconstruction of large layers in the background,
+  // which bounds the time taken by any update (but leaves the reconstructed
+  // layers to be used by queries only once the reconstruction completes)
+  public void setBackground(boolean background) {
+
+    if (!background && this.rebuild != null) {
+      this.cancelRebuild();
+    }
+
+    this.background = background;
   }
 
   // returns the number of layers in the data structure
   public int depth() {
-    return this.layers.size();
+    return this.stack.depth();
   }
 
-  // clusters the coreset and returns the value of the clustering
-  public TreeMap<Integer, Integer> cluster() {
+  // publishes a snapshot of the coreset (the points of the last layer and the
+  // samples of the other layers)
+  private void publishCoreset() {
 
-    TreeMap<Integer, Float> coresetWeights = new TreeMap<Integer, Float>();
+    long start = System.nanoTime();
+
+    IntIntMap lastLayer = stack.layers.get(depth()-1);
+
+    int size = lastLayer.size();
+    for (IntFloatMap layerSamples : stack.samples) {
+      size += layerSamples.size();
+    }
+
+    float[][] coresetPoints = new float[size][];
+    float[] coresetWeights = new float[size];
+    int[] coresetKeys = new int[size];
+
+    int l = 0;
 
     // add final unsampled layer
-    Integer[] finalLayer = layers.getLast().keySet().toArray(new Integer[0]);
+    for (int j = lastLayer.first(); j >= 0; j = lastLayer.next(j)) {
+      int slot = lastLayer.keyAt(j);
+      coresetPoints[l] = row(slot);
+      coresetWeights[l] = space.weight(slot);
+      coresetKeys[l++] = space.key(slot);
+    }
 
-    for (Integer key : finalLayer) {
-      coresetWeights.put(key, 1.0f);
+    // add the samples from each layer
+    for (IntFloatMap layerSamples : stack.samples) {
+      for (int j = layerSamples.first(); j >= 0; j = layerSamples.next(j)) {
+        int slot = layerSamples.keyAt(j);
+        coresetPoints[l] = row(slot);
+        coresetWeights[l] = layerSamples.valueAt(j);
+        coresetKeys[l++] = space.key(slot);
+      }
     }
 
-    // place the samples from each layer into the map
-    for (int i = 0; i < samples.size(); i++) {
-      coresetWeights.putAll(samples.get(i));
+    this.snapshot.set(new CoresetSnapshot(this.updates, coresetPoints, coresetWeights, coresetKeys));
+
+    // the gauges of the layers are only recorded when enabled, as they would
+    // take the lock of the metrics on every update
+    if (this.metrics.layerGauges()) {
+      this.metrics.updated(stack.layers, stack.samples, System.nanoTime() - start);
     }
+  }
 
-    // create a map of the actual points
-    TreeMap<Integer, float[]> coresetPoints = new TreeMap<Integer, float[]>();
+  // the copy of the point in slot shared by the snapshots
+  private float[] row(int slot) {
 
-    Integer[] coresetPointsArr = coresetWeights.keySet().toArray(new Integer[0]);
+    if (slot >= this.rows.length) {
+      this.rows = Arrays.copyOf(this.rows, Math.max(slot + 1, 2*this.rows.length));
+    }
 
-    for (Integer key : coresetPointsArr) {
-      coresetPoints.put(key, space.get(key));
+    if (this.rows[slot] == null) {
+      this.rows[slot] = this.space.point(slot);
     }
 
-    // call the static algorithm on the coreset
-    OnlineKMedian staticAlgo = new OnlineKMedian(k, metric);
+    return this.rows[slot];
+  }
+
+  // clusters the latest snapshot of the coreset and returns the value of the
+  // clustering (or the cached solution, if the coreset has not changed since
+  // the last query), which may run concurrently with the updates
+  public TreeMap<Integer, Integer> cluster() {
+
+    long start = System.nanoTime();
 
-    return staticAlgo.cluster(coresetPoints, coresetWeights);
+    CoresetSnapshot coreset = this.snapshot.get();
+    TreeMap<Integer, Integer> solution = this.cache.cluster(coreset);
+
+    this.metrics.queried(coreset.size(), System.nanoTime() - start);
+
+    return solution;
+  }
+
+  // the cache of the solutions returned by cluster
+  public QueryCache queryCache() {
+    return this.cache;
+  }
+
+  // the counters, gauges and timers of the instance, which can be polled with
+  // snapshot or registered with JMX
+  public DynamicMPMetrics metrics() {
+    return this.metrics;
   }
 
   ////____//// METHODS FOR TESTING ////____////
@@ -356,13 +1147,13 @@ public class DynamicMP extends DynamicAlgorithm {
 
     // print times until reconstruction
     System.out.print("Reconstruction timer: ");
-    System.out.println(this.reconTimer);
+    System.out.println(Arrays.toString(Arrays.copyOf(this.stack.reconTimer, depth()-1)));
 
     // print sizes of layers
     int j = 0;
     LinkedList<Integer> sizes = new LinkedList<Integer>();
     for (int i = 0; i < depth(); i++) {
-      sizes.add(layers.get(i).size());
+      sizes.add(stack.layers.get(i).size());
     }
     System.out.print("Layer sizes:          ");
     System.out.println(sizes);
@@ -373,6 +1164,88 @@ public class DynamicMP extends DynamicAlgorithm {
     System.out.println("");
   }
 
+  /*
+
+  checkpoints: the point store and the layers (with their samples, clusters and
+  timers) are written as they are, so restoring an instance copies its arrays
+  out of the file rather than reinserting the points
+
+  a reconstruction running in the background is not written, its layers are
+  still expired in the checkpoint and so are reconstructed after the restore
+
+  */
+
+  public void checkpoint(String path) throws IOException {
+
+    try (CheckpointWriter out = new CheckpointWriter(path, CheckpointWriter.DYNAMIC_MP)) {
+      write(out);
+    }
+  }
+
+  // writes the state of the instance to an open checkpoint (which may hold
+  // other instances, as the checkpoints of ShardedDynamicMP do)
+  void write(CheckpointWriter out) throws IOException {
+
+    out.putInt(this.k);
+    out.putFloat(this.alpha);
+    out.putFloat(this.beta);
+    out.putFloat(this.epsilon);
+
+    out.putLong(this.layersConstructed);
+    out.putLong(this.updates);
+
+    this.space.write(out);
+    this.stack.write(out);
+  }
+
+  // restores an instance from a checkpoint, the metric must be the one the
+  // instance used
+  public static DynamicMP restore(String path, Metric metric) throws IOException {
+    return restore(path, metric, new Random());
+  }
+
+  // restores an instance from a checkpoint, sampling with a fixed seed from then on
+  public static DynamicMP restore(String path, Metric metric, long seed) throws IOException {
+    return restore(path, metric, new Random(seed));
+  }
+
+  private static DynamicMP restore(String path, Metric metric, Random rng) throws IOException {
+
+    try (CheckpointReader in = new CheckpointReader(path, CheckpointWriter.DYNAMIC_MP)) {
+      return read(in, metric, rng);
+    }
+  }
+
+  // reads an instance written by write from an open checkpoint
+  static DynamicMP read(CheckpointReader in, Metric metric, Random rng) throws IOException {
+
+    int k = in.getInt();
+    float alpha = in.getFloat();
+    float beta = in.getFloat();
+    float epsilon = in.getFloat();
+
+    DynamicMP algorithm = new DynamicMP(k, metric, alpha, beta, epsilon, rng);
+
+    algorithm.layersConstructed = in.getLong();
+    algorithm.updates = in.getLong();
+
+    algorithm.space = PointStore.read(in);
+    algorithm.stack = algorithm.new LayerStack(in);
+
+    algorithm.publishCoreset();
+
+    return algorithm;
+  }
+
+  // every construction of a layer counts as a reconstruction
+  public long reconstructions() {
+    return this.layersConstructed;
+  }
+
+  public String parameters() {
+    return "k=" + k + " phi=" + alpha + " beta=" + beta + " epsilon=" + epsilon;
+  }
+
   public String name() {
     return String.valueOf(k) + "_" + String.valueOf((int)alpha) + "_BCLP";
   }
@@ -0,0 +1,496 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+
+counters, gauges and timers of an instance of DynamicMP
+
+the instance records into them as it runs (the layers may be constructed on
+the thread reconstructing in the background, and queries made from any
+thread), so recording and reading are synchronized, which costs little as a
+lock taken by a single thread is cheap and the metrics recorded by default
+(reconstructions, constructions of layers, replaced samples and queries) are
+not recorded on every update
+
+the gauges of the layers (their sizes and clusters) and the time taken to
+publish the coreset would have to be recorded on every update, so they are
+only recorded once enabled with setLayerGauges, or while the metrics are
+registered, the number of updates is read from the coreset when needed
+
+the metrics are read either by polling snapshot, which returns an immutable
+copy of all of them, or over JMX once registered with register
+
+*/
+
+public class DynamicMPMetrics implements DynamicMPMetricsMBean {
+
+  // the domain of the names the metrics are registered under
+  public static final String DOMAIN = "dynamicclustering";
+
+  // the instance and the cache answering its queries
+  private DynamicMP algorithm;
+  private QueryCache cache;
+
+  // whether the gauges of the layers are recorded, and whether they were
+  // before the metrics were registered (which records them)
+  private volatile boolean layerGauges;
+  private boolean layerGaugesUnregistered;
+
+  // gauges (updated in place, and only reallocated when the depth changes)
+  private int[] layerSizes = new int[0];
+  private int[] layerClusters = new int[0];
+
+  // reconstructions by the layer they started from
+  private long[] reconstructionsByLayer = new long[8];
+
+  // points in the layers constructed by each reconstruction
+  private LatencyHistogram reconstructionPoints = new LatencyHistogram();
+
+  // times (in nano seconds)
+  private LatencyHistogram constructLayerNanos = new LatencyHistogram();
+  private LatencyHistogram queryNanos = new LatencyHistogram();
+  private long snapshotNanos;
+  private long snapshots;
+
+  private long sampleReplacements;
+
+  // sizes of the coresets clustered by the queries
+  private int lastQueryCoresetSize;
+  private long queryCoresetSizes;
+
+  // the counters of the cache when the metrics were last reset
+  private long baseHits;
+  private long baseWarmStarts;
+  private long baseFullRuns;
+  private long baseWarmNanos;
+  private long baseFullNanos;
+
+  // the name the metrics are registered under (if they are)
+  private ObjectName name;
+
+  DynamicMPMetrics(DynamicMP algorithm, QueryCache cache) {
+    this.algorithm = algorithm;
+    this.cache = cache;
+  }
+
+  /*
+
+  recording (called by DynamicMP)
+
+  */
+
+  // whether DynamicMP should call updated after each update
+  boolean layerGauges() {
+    return layerGauges;
+  }
+
+  // the layers after an update, and the time taken to publish the coreset
+  synchronized void updated(ArrayList<IntIntMap> layers, ArrayList<IntFloatMap> samples, long snapshotNanos) {
+
+    if (layerSizes.length != layers.size()) {
+      layerSizes = new int[layers.size()];
+      layerClusters = new int[samples.size()];
+    }
+
+    for (int i = 0; i < layerSizes.length; i++) {
+      layerSizes[i] = layers.get(i).size();
+    }
+    for (int i = 0; i < layerClusters.length; i++) {
+      layerClusters[i] = samples.get(i).size();
+    }
+
+    this.snapshotNanos += snapshotNanos;
+    this.snapshots++;
+  }
+
+  // a reconstruction from layer i, which constructed layers holding points points
+  synchronized void reconstructed(int i, long points) {
+
+    if (i >= reconstructionsByLayer.length) {
+      reconstructionsByLayer = Arrays.copyOf(reconstructionsByLayer, Math.max(i + 1, 2*reconstructionsByLayer.length));
+    }
+
+    reconstructionsByLayer[i]++;
+    reconstructionPoints.record(points);
+  }
+
+  synchronized void layerConstructed(long nanos) {
+    constructLayerNanos.record(nanos);
+  }
+
+  synchronized void sampleReplaced() {
+    sampleReplacements++;
+  }
+
+  synchronized void queried(int coresetSize, long nanos) {
+    lastQueryCoresetSize = coresetSize;
+    queryCoresetSizes += coresetSize;
+    queryNanos.record(nanos);
+  }
+
+  /*
+
+  reading
+
+  */
+
+  // an immutable copy of the metrics
+  public synchronized Snapshot snapshot() {
+    return new Snapshot(this);
+  }
+
+  // starts (or stops) recording the gauges of the layers and the time taken to
+  // publish the coreset after each update, which are empty (and zero) until
+  // the next update once started
+  public synchronized void setLayerGauges(boolean enabled) {
+
+    if (!enabled) {
+      layerSizes = new int[0];
+      layerClusters = new int[0];
+    }
+
+    layerGauges = enabled;
+  }
+
+  public synchronized void reset() {
+
+    Arrays.fill(reconstructionsByLayer, 0);
+    reconstructionPoints.reset();
+    constructLayerNanos.reset();
+    queryNanos.reset();
+    snapshotNanos = 0;
+    snapshots = 0;
+    sampleReplacements = 0;
+    queryCoresetSizes = 0;
+
+    baseHits = cache.hits();
+    baseWarmStarts = cache.warmStarts();
+    baseFullRuns = cache.fullRuns();
+    baseWarmNanos = cache.warmNanos();
+    baseFullNanos = cache.fullNanos();
+  }
+
+  // registers the metrics with the platform MBean server under the name
+  // dynamicclustering:type=DynamicMP,name=<name>
+  public synchronized ObjectName register(String name) throws JMException {
+
+    unregister();
+
+    ObjectName objectName = new ObjectName(DOMAIN + ":type=DynamicMP,name=" + ObjectName.quote(name));
+
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+
+    this.name = objectName;
+
+    layerGaugesUnregistered = layerGauges;
+    setLayerGauges(true);
+
+    return objectName;
+  }
+
+  // removes the metrics from the platform MBean server (if registered), and
+  // records the gauges of the layers only if they were before registering
+  public synchronized void unregister() throws JMException {
+
+    if (name == null) return;
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    if (server.isRegistered(name)) {
+      server.unregisterMBean(name);
+    }
+
+    name = null;
+
+    setLayerGauges(layerGaugesUnregistered);
+  }
+
+  // the attributes read over JMX, each from a snapshot of its own
+
+  public long getUpdates() {
+    return snapshot().getUpdates();
+  }
+
+  public int getDepth() {
+    return snapshot().getDepth();
+  }
+
+  public int[] getLayerSizes() {
+    return snapshot().getLayerSizes();
+  }
+
+  public int[] getLayerClusters() {
+    return snapshot().getLayerClusters();
+  }
+
+  public long[] getReconstructionsByLayer() {
+    return snapshot().getReconstructionsByLayer();
+  }
+
+  public long getReconstructions() {
+    return snapshot().getReconstructions();
+  }
+
+  public double getMeanPointsPerReconstruction() {
+    return snapshot().getMeanPointsPerReconstruction();
+  }
+
+  public long getMaxPointsPerReconstruction() {
+    return snapshot().getMaxPointsPerReconstruction();
+  }
+
+  public long getLayersConstructed() {
+    return snapshot().getLayersConstructed();
+  }
+
+  public double getConstructLayerMeanMicros() {
+    return snapshot().getConstructLayerMeanMicros();
+  }
+
+  public double getConstructLayerP99Micros() {
+    return snapshot().getConstructLayerP99Micros();
+  }
+
+  public double getConstructLayerTotalMillis() {
+    return snapshot().getConstructLayerTotalMillis();
+  }
+
+  public long getSampleReplacements() {
+    return snapshot().getSampleReplacements();
+  }
+
+  public double getSnapshotMeanMicros() {
+    return snapshot().getSnapshotMeanMicros();
+  }
+
+  public long getQueries() {
+    return snapshot().getQueries();
+  }
+
+  public int getLastQueryCoresetSize() {
+    return snapshot().getLastQueryCoresetSize();
+  }
+
+  public double getMeanQueryCoresetSize() {
+    return snapshot().getMeanQueryCoresetSize();
+  }
+
+  public double getQueryMeanMicros() {
+    return snapshot().getQueryMeanMicros();
+  }
+
+  public double getQueryP99Micros() {
+    return snapshot().getQueryP99Micros();
+  }
+
+  public long getQueryCacheHits() {
+    return snapshot().getQueryCacheHits();
+  }
+
+  public long getQueryWarmStarts() {
+    return snapshot().getQueryWarmStarts();
+  }
+
+  public long getQueryFullRuns() {
+    return snapshot().getQueryFullRuns();
+  }
+
+  public double getQueryWarmStartMillis() {
+    return snapshot().getQueryWarmStartMillis();
+  }
+
+  public double getQueryFullRunMillis() {
+    return snapshot().getQueryFullRunMillis();
+  }
+
+  /*
+
+  an immutable copy of the metrics, taken at once
+
+  */
+
+  public static final class Snapshot implements DynamicMPMetricsValues {
+
+    private final long updates;
+    private final int[] layerSizes;
+    private final int[] layerClusters;
+
+    private final long[] reconstructionsByLayer;
+    private final long reconstructions;
+    private final double meanPointsPerReconstruction;
+    private final long maxPointsPerReconstruction;
+
+    private final long layersConstructed;
+    private final double constructLayerMeanMicros;
+    private final double constructLayerP99Micros;
+    private final double constructLayerTotalMillis;
+
+    private final long sampleReplacements;
+
+    private final double snapshotMeanMicros;
+
+    private final long queries;
+    private final int lastQueryCoresetSize;
+    private final double meanQueryCoresetSize;
+    private final double queryMeanMicros;
+    private final double queryP99Micros;
+
+    private final long queryCacheHits;
+    private final long queryWarmStarts;
+    private final long queryFullRuns;
+    private final double queryWarmStartMillis;
+    private final double queryFullRunMillis;
+
+    // copies the metrics (the caller holds their lock)
+    private Snapshot(DynamicMPMetrics metrics) {
+
+      this.updates = metrics.algorithm.coreset().version();
+      this.layerSizes = metrics.layerSizes.clone();
+      this.layerClusters = metrics.layerClusters.clone();
+
+      // the reconstructions of the layers that exist (or existed)
+      int layers = metrics.reconstructionsByLayer.length;
+      while (layers > 0 && metrics.reconstructionsByLayer[layers - 1] == 0) {
+        layers--;
+      }
+
+      this.reconstructionsByLayer = Arrays.copyOf(metrics.reconstructionsByLayer, layers);
+      this.reconstructions = metrics.reconstructionPoints.count();
+      this.meanPointsPerReconstruction = metrics.reconstructionPoints.mean();
+      this.maxPointsPerReconstruction = metrics.reconstructionPoints.count() == 0 ? 0 : metrics.reconstructionPoints.max();
+
+      LatencyHistogram construct = metrics.constructLayerNanos;
+      this.layersConstructed = construct.count();
+      this.constructLayerMeanMicros = construct.mean()/1000;
+      this.constructLayerP99Micros = construct.count() == 0 ? 0 : construct.valueAtPercentile(99)/1000.0;
+      this.constructLayerTotalMillis = construct.total()/1000000.0;
+
+      this.sampleReplacements = metrics.sampleReplacements;
+
+      this.snapshotMeanMicros = metrics.snapshots == 0 ? 0 : metrics.snapshotNanos/1000.0/metrics.snapshots;
+
+      LatencyHistogram query = metrics.queryNanos;
+      this.queries = query.count();
+      this.lastQueryCoresetSize = metrics.lastQueryCoresetSize;
+      this.meanQueryCoresetSize = query.count() == 0 ? 0 : (double)metrics.queryCoresetSizes/query.count();
+      this.queryMeanMicros = query.mean()/1000;
+      this.queryP99Micros = query.count() == 0 ? 0 : query.valueAtPercentile(99)/1000.0;
+
+      QueryCache cache = metrics.cache;
+      this.queryCacheHits = cache.hits() - metrics.baseHits;
+      this.queryWarmStarts = cache.warmStarts() - metrics.baseWarmStarts;
+      this.queryFullRuns = cache.fullRuns() - metrics.baseFullRuns;
+      this.queryWarmStartMillis = (cache.warmNanos() - metrics.baseWarmNanos)/1000000.0;
+      this.queryFullRunMillis = (cache.fullNanos() - metrics.baseFullNanos)/1000000.0;
+    }
+
+    public long getUpdates() {
+      return updates;
+    }
+
+    public int getDepth() {
+      return layerSizes.length;
+    }
+
+    public int[] getLayerSizes() {
+      return layerSizes.clone();
+    }
+
+    public int[] getLayerClusters() {
+      return layerClusters.clone();
+    }
+
+    public long[] getReconstructionsByLayer() {
+      return reconstructionsByLayer.clone();
+    }
+
+    public long getReconstructions() {
+      return reconstructions;
+    }
+
+    public double getMeanPointsPerReconstruction() {
+      return meanPointsPerReconstruction;
+    }
+
+    public long getMaxPointsPerReconstruction() {
+      return maxPointsPerReconstruction;
+    }
+
+    public long getLayersConstructed() {
+      return layersConstructed;
+    }
+
+    public double getConstructLayerMeanMicros() {
+      return constructLayerMeanMicros;
+    }
+
+    public double getConstructLayerP99Micros() {
+      return constructLayerP99Micros;
+    }
+
+    public double getConstructLayerTotalMillis() {
+      return constructLayerTotalMillis;
+    }
+
+    public long getSampleReplacements() {
+      return sampleReplacements;
+    }
+
+    public double getSnapshotMeanMicros() {
+      return snapshotMeanMicros;
+    }
+
+    public long getQueries() {
+      return queries;
+    }
+
+    public int getLastQueryCoresetSize() {
+      return lastQueryCoresetSize;
+    }
+
+    public double getMeanQueryCoresetSize() {
+      return meanQueryCoresetSize;
+    }
+
+    public double getQueryMeanMicros() {
+      return queryMeanMicros;
+    }
+
+    public double getQueryP99Micros() {
+      return queryP99Micros;
+    }
+
+    public long getQueryCacheHits() {
+      return queryCacheHits;
+    }
+
+    public long getQueryWarmStarts() {
+      return queryWarmStarts;
+    }
+
+    public long getQueryFullRuns() {
+      return queryFullRuns;
+    }
+
+    public double getQueryWarmStartMillis() {
+      return queryWarmStartMillis;
+    }
+
+    public double getQueryFullRunMillis() {
+      return queryFullRunMillis;
+    }
+
+    // the metrics on a few lines
+    public String toString() {
+      return "updates " + updates + ", depth " + getDepth() + ", layer sizes " + Arrays.toString(layerSizes) + ", clusters " + Arrays.toString(layerClusters) + "\n"
+        + "reconstructions " + reconstructions + " by layer " + Arrays.toString(reconstructionsByLayer) + ", points per reconstruction " + String.format("%.1f", meanPointsPerReconstruction) + " (max " + maxPointsPerReconstruction + ")\n"
+        + "layers constructed " + layersConstructed + ", constructLayer " + String.format("%.1f", constructLayerMeanMicros) + "us mean, " + String.format("%.1f", constructLayerP99Micros) + "us p99, " + String.format("%.1f", constructLayerTotalMillis) + "ms total, sample replacements " + sampleReplacements + "\n"
+        + "snapshot " + String.format("%.1f", snapshotMeanMicros) + "us mean, queries " + queries + " (coreset " + lastQueryCoresetSize + " last, " + String.format("%.1f", meanQueryCoresetSize) + " mean), " + String.format("%.1f", queryMeanMicros) + "us mean, " + String.format("%.1f", queryP99Micros) + "us p99, "
+        + "hits " + queryCacheHits + ", warm starts " + queryWarmStarts + " (" + String.format("%.1f", queryWarmStartMillis) + "ms), full runs " + queryFullRuns + " (" + String.format("%.1f", queryFullRunMillis) + "ms)";
+    }
+  }
+}
@@ -0,0 +1,13 @@
+/*
+
+the metrics of an instance of DynamicMP, as exposed over JMX (the attributes
+are those of a consistent snapshot taken when each one is read, see
+DynamicMPMetrics.snapshot for reading several of them at once)
+
+*/
+
+public interface DynamicMPMetricsMBean extends DynamicMPMetricsValues {
+
+  // clears the counters and timers (the gauges are kept)
+  void reset();
+}
@@ -0,0 +1,62 @@
+/*
+
+the metrics of an instance of DynamicMP that can be read, either from a
+snapshot or over JMX
+
+the times are in micro seconds unless stated otherwise
+
+*/
+
+public interface DynamicMPMetricsValues {
+
+  // number of updates so far
+  long getUpdates();
+
+  // number of layers, and the number of points and of clusters in each (the
+  // last layer has no clusters), only recorded once enabled with
+  // DynamicMPMetrics.setLayerGauges or while registered, and empty otherwise
+  int getDepth();
+  int[] getLayerSizes();
+  int[] getLayerClusters();
+
+  // number of reconstructions (which constructed at least one layer) by the
+  // layer they started from, and in total
+  long[] getReconstructionsByLayer();
+  long getReconstructions();
+
+  // number of points in the layers constructed by a reconstruction
+  double getMeanPointsPerReconstruction();
+  long getMaxPointsPerReconstruction();
+
+  // the layers constructed and the time spent constructing them
+  long getLayersConstructed();
+  double getConstructLayerMeanMicros();
+  double getConstructLayerP99Micros();
+  double getConstructLayerTotalMillis();
+
+  // number of deleted (or moved) samples replaced by the next closest point
+  // of their cluster
+  long getSampleReplacements();
+
+  // time spent assembling the snapshot of the coreset after each update
+  // (recorded along with the gauges of the layers)
+  double getSnapshotMeanMicros();
+
+  // number of queries and the size of the coreset they clustered
+  long getQueries();
+  int getLastQueryCoresetSize();
+  double getMeanQueryCoresetSize();
+
+  // time taken by the queries
+  double getQueryMeanMicros();
+  double getQueryP99Micros();
+
+  // how the queries were answered (from the cache, by refining the cached
+  // solution or from scratch) and the time spent on refinements and on
+  // clustering from scratch
+  long getQueryCacheHits();
+  long getQueryWarmStarts();
+  long getQueryFullRuns();
+  double getQueryWarmStartMillis();
+  double getQueryFullRunMillis();
+}
@@ -39,13 +39,29 @@ public class HenzingerTree extends DynamicAlgorithm {
   private int np;
   private int phaseCounter;
 
-  // the output of the final coreset
+  // the output of the final coreset, the first outSize entries of buffers
+  // which are reused between updates
   private float[][] outPoints;
   private float[] outWeights;
   private int[] outKeys;
+  private int outSize;
 
   private CoresetBFL outercore;
 
+  // the coreset construction shared by the internal nodes, which recompute
+  // one at a time
+  private CoresetBFL innercore;
+
+  // number of outer coresets constructed so far, which versions the coreset
+  private long version;
+
+  // the solution of the last query
+  private QueryCache cache;
+
+  // whether a batch of updates is being applied, in which case the nodes to
+  // recompute are only marked
+  private boolean batching;
+
   public HenzingerTree(int k, Metric metric, int m) {
     this.k = k;
     this.metric = metric;
@@ -59,22 +75,99 @@ public class HenzingerTree extends DynamicAlgorithm {
     this.phaseCounter = 0;
 
     this.outercore = new CoresetBFL(k, metric, m);
+    this.innercore = new CoresetBFL(k, metric, m);
+
+    this.outPoints = new float[outercore.capacity()][];
+    this.outWeights = new float[outercore.capacity()];
+    this.outKeys = new int[outercore.capacity()];
+    this.outSize = 0;
 
-    this.outPoints = new float[0][0];
-    this.outWeights = new float[0];
-    this.outKeys = new int[0];
+    this.cache = new QueryCache(k, metric);
   }
 
-  // insert a point (we only care about unweighted points)
+  // insert a point
   public void insert(int key, float[] point) {
+    if (insertLeaf(key, point, 1.0f)) outerInstance();
+  }
+
+  // insert a point with the given weight (the weight of its leaf)
+  public void insert(int key, float[] point, float weight) {
+    checkWeight(weight);
+    if (insertLeaf(key, point, weight)) outerInstance();
+  }
+
+  // delete a point from the tree
+  public void delete(int key) {
+    if (deleteLeaf(key)) outerInstance();
+  }
+
+  // move a point to new coordinates, keeping its key and weight: the point of
+  // its leaf is replaced and only the path from the leaf to the root is
+  // recomputed (a point not in the tree is inserted)
+  public void move(int key, float[] point) {
+
+    Leaf leaf = leafFinder.get(key);
+
+    if (leaf == null) {
+      insert(key, point);
+      return;
+    }
+
+    refresher();
+
+    leaf.replace(key, point, leaf.weight());
+
+    recomputeUpwards(leaf);
+
+    outerInstance();
+  }
+
+  /*
+
+  apply a batch of updates: the nodes on the paths from the updated leaves to
+  the root are only marked while the updates are applied, then each marked
+  node is recomputed once (after its children) and the outer coreset is
+  constructed once
+
+  */
+
+  public void applyBatch(int[] keys, float[][] points, float[] weights) {
+
+    if (weights != null) {
+      for (int i = 0; i < keys.length; i++) {
+        if (points[i] != null) checkWeight(weights[i]);
+      }
+    }
+
+    boolean changed = false;
+
+    batching = true;
+
+    for (int i = 0; i < keys.length; i++) {
+      if (points[i] != null) changed |= insertLeaf(keys[i], points[i], weights == null ? 1.0f : weights[i]);
+      else changed |= deleteLeaf(keys[i]);
+    }
+
+    batching = false;
+
+    // recompute the marked nodes, the refresher may have marked nodes even if
+    // the tree did not change
+    if (root != null)
+      root.recomputeMarked(np, lambda(), epsilon());
+
+    if (changed) outerInstance();
+  }
+
+  // inserts a leaf for the point, returns false if the point is already in the tree
+  private boolean insertLeaf(int key, float[] point, float weight) {
 
     refresher();
 
     // if this point is already in the tree, do nothing
-    if (leafFinder.get(key) != null) return;
+    if (leafFinder.get(key) != null) return false;
 
     // create new leaf
-    Leaf leaf = new Leaf(k, metric, m, key, point);
+    Leaf leaf = new Leaf(k, metric, m, innercore, key, point, weight);
 
     // check if the tree is empty
     if (n == 0) {
@@ -95,12 +188,15 @@ public class HenzingerTree extends DynamicAlgorithm {
     else {
 
       // insert the point
-      Internal internal = insertionPoint.insert(leaf, np, lambda(), epsilon());
+      Internal internal = insertionPoint.insert(leaf);
 
       if (n == 1) {
         root = internal;
       }
 
+      // recompute the node to leaf path from the new leaf
+      recomputeUpwards(leaf);
+
       // add new leaf to map
       leafFinder.put(key, leaf);
 
@@ -110,11 +206,11 @@ public class HenzingerTree extends DynamicAlgorithm {
       n += 1;
     }
 
-    outerInstance();
+    return true;
   }
 
-  // delete a point from the tree
-  public void delete(int key) {
+  // deletes the leaf of the point, returns false if the point is not in the tree
+  private boolean deleteLeaf(int key) {
 
     refresher();
 
@@ -122,7 +218,7 @@ public class HenzingerTree extends DynamicAlgorithm {
     Leaf leafToReplace = leafFinder.get(key);
 
     // if this point is not in the tree, do nothing
-    if (leafToReplace == null) return;
+    if (leafToReplace == null) return false;
 
     // if the tree will be empty after this update, delete it
     if (n == 1) {
@@ -138,11 +234,14 @@ public class HenzingerTree extends DynamicAlgorithm {
     else {
 
       // delete the last leaf in the tree
-      Leaf deadLeaf = insertionPoint.last.delete(np, lambda(), epsilon());
+      Leaf deadLeaf = insertionPoint.last.delete();
 
       // reset the position of the insertion pointer
       insertionPoint = insertionPoint.last;
 
+      // recompute the node to leaf path from the sibling of the dead leaf
+      recomputeUpwards(insertionPoint);
+
       // remove dead leaf from leafFinder
       leafFinder.remove(deadLeaf.key());
 
@@ -150,8 +249,12 @@ public class HenzingerTree extends DynamicAlgorithm {
 
       // if we have deleted the incorrect leaf
       if (deadLeaf.key() != key) {
-        leafToReplace.replace(deadLeaf.key(), deadLeaf.point(), np, lambda(), epsilon());
+        leafToReplace.replace(deadLeaf.key(), deadLeaf.point(), deadLeaf.weight());
+        leafFinder.remove(key);
         leafFinder.put(deadLeaf.key(), leafToReplace);
+
+        // recompute with the new point
+        recomputeUpwards(leafToReplace);
       }
 
       if (n == 1) {
@@ -159,7 +262,16 @@ public class HenzingerTree extends DynamicAlgorithm {
       }
     }
 
-    outerInstance();
+    return true;
+  }
+
+  // recomputes the nodes from node to the root, or only marks them if a batch
+  // of updates is being applied
+  private void recomputeUpwards(Node node) {
+    if (batching)
+      node.markUpwards();
+    else
+      node.recomputeUpwards(np, lambda(), epsilon());
   }
 
   // move refresher pointer
@@ -179,41 +291,53 @@ public class HenzingerTree extends DynamicAlgorithm {
     }
 
     // use refresh pointer
-    refreshPointer.recomputeUpwards(np, lambda(), epsilon());
+    recomputeUpwards(refreshPointer);
     refreshPointer = refreshPointer.next;
-    refreshPointer.recomputeUpwards(np, lambda(), epsilon());
+    recomputeUpwards(refreshPointer);
     refreshPointer = refreshPointer.next;
   }
 
   // computes the final output corset of smaller size
   private void outerInstance() {
 
+    version++;
+
     if (root == null) {
-      this.outPoints = new float[0][0];
-      this.outWeights = new float[0];
-      this.outKeys = new int[0];
-      return;
+      Arrays.fill(outPoints, 0, outSize, null);
+      outSize = 0;
     }
+    else {
+
+      // run the outercore on the output of the root
+      outercore.clearInput();
+      outercore.addInput(root.getPoints(), root.getWeights(), root.getKeys(), root.getSize());
 
-    float[][] inPoints = root.getPoints();
-    float[] inWeights = root.getWeights();
-    int[] inKeys = root.getKeys();
+      outSize = outercore.construct(1.0f/(n + 1), epsilon, outPoints, outWeights, outKeys);
 
-    // run the outercore
-    outercore.construct(inPoints, inWeights, inKeys, 1.0f/(n + 1), epsilon);
+      outercore.clearInput();
+    }
+
+    publishCoreset();
+  }
 
-    outPoints = outercore.getPoints();
-    outWeights = outercore.getWeights();
-    outKeys = outercore.getKeys();
+  // publishes a snapshot of the output coreset (the arrays are copied, as the
+  // output buffers are reused by the next update)
+  private void publishCoreset() {
+    snapshot.set(new CoresetSnapshot(version, Arrays.copyOf(outPoints, outSize), Arrays.copyOf(outWeights, outSize), Arrays.copyOf(outKeys, outSize)));
   }
 
-  // cluster the points in the corset
+  // cluster the latest snapshot of the corset (or return the cached solution,
+  // if the coreset has not changed since the last query), which may run
+  // concurrently with the updates
   public TreeMap<Integer, Integer> cluster() {
 
-    // call the static algorithm on the outercore output
-    OnlineKMedian staticAlgo = new OnlineKMedian(k, metric);
+    // call the static algorithm on the outercore output (or refine the last solution)
+    return cache.cluster(snapshot.get());
+  }
 
-    return staticAlgo.cluster(outPoints, outWeights, outKeys);
+  // the cache of the solutions returned by cluster
+  public QueryCache queryCache() {
+    return cache;
   }
 
   // the parameter lambda for inner ALG instances
@@ -232,6 +356,261 @@ public class HenzingerTree extends DynamicAlgorithm {
       root.print();
   }
 
+  /*
+
+  checkpoints: the tree is written in pre-order, with the point of each leaf
+  and the coreset of each internal node, so restoring an instance recomputes
+  no coresets
+
+  the points of the coresets are (nearly always) the points of leaves, which
+  are written as references to the leaf with the same key, and restored as the
+  same arrays, so a restored tree shares the points as the original one does
+
+  */
+
+  public void checkpoint(String path) throws IOException {
+
+    try (CheckpointWriter out = new CheckpointWriter(path, CheckpointWriter.HENZINGER_TREE)) {
+
+      out.putInt(k);
+      out.putInt(m);
+      out.putFloat(epsilon);
+
+      out.putInt(n);
+      out.putInt(np);
+      out.putInt(phaseCounter);
+      out.putLong(version);
+
+      writeCoreset(out, outPoints, outWeights, outKeys, outSize);
+
+      if (n == 0) return;
+
+      // the index of each leaf in the order of the leaves
+      IdentityHashMap<Leaf, Integer> leafIndex = new IdentityHashMap<Leaf, Integer>();
+
+      Leaf leaf = insertionPoint;
+      for (int i = 0; i < n; i++) {
+        leafIndex.put(leaf, i);
+        leaf = leaf.next;
+      }
+
+      writeNode(out, root);
+
+      // the positions of the pointers, relative to the first leaf of the tree
+      Leaf first = root instanceof Leaf ? (Leaf)root : firstLeaf((Internal)root);
+      int offset = leafIndex.get(first);
+
+      out.putInt((n - offset) % n);
+
+      // a refresh pointer at a deleted leaf continues from the next leaf in the tree
+      int refreshIndex = -1;
+      if (refreshPointer != null) {
+        Leaf refresh = refreshPointer;
+        for (int i = 0; i <= n && leafIndex.get(refresh) == null; i++) {
+          refresh = refresh.next;
+        }
+        if (leafIndex.get(refresh) != null) {
+          refreshIndex = (leafIndex.get(refresh) - offset + n) % n;
+        }
+      }
+
+      out.putInt(refreshIndex);
+    }
+  }
+
+  // restores an instance from a checkpoint, the metric must be the one the
+  // instance used
+  public static HenzingerTree restore(String path, Metric metric) throws IOException {
+
+    try (CheckpointReader in = new CheckpointReader(path, CheckpointWriter.HENZINGER_TREE)) {
+
+      int k = in.getInt();
+      int m = in.getInt();
+
+      HenzingerTree tree = new HenzingerTree(k, metric, m);
+
+      tree.epsilon = in.getFloat();
+
+      tree.n = in.getInt();
+      tree.np = in.getInt();
+      tree.phaseCounter = in.getInt();
+      tree.version = in.getLong();
+
+      // the coresets whose points refer to leaves are resolved once the leaves are read
+      ArrayList<int[]> unresolvedKeys = new ArrayList<int[]>();
+      ArrayList<float[][]> unresolvedPoints = new ArrayList<float[][]>();
+
+      int[] outKeys = in.getInts();
+      int capacity = Math.max(tree.outercore.capacity(), outKeys.length);
+
+      tree.outSize = outKeys.length;
+      tree.outWeights = in.getFloats(capacity);
+      tree.outPoints = readCoresetPoints(in, outKeys, capacity, unresolvedKeys, unresolvedPoints);
+      tree.outKeys = Arrays.copyOf(outKeys, capacity);
+
+      if (tree.n == 0) {
+        tree.publishCoreset();
+        return tree;
+      }
+
+      ArrayList<Leaf> leaves = new ArrayList<Leaf>(tree.n);
+
+      tree.root = tree.readNode(in, leaves, unresolvedKeys, unresolvedPoints);
+
+      // link the leaves in order
+      for (int i = 0; i < leaves.size(); i++) {
+        Leaf leaf = leaves.get(i);
+        leaf.next = leaves.get((i + 1) % leaves.size());
+        leaf.next.last = leaf;
+        tree.leafFinder.put(leaf.key(), leaf);
+      }
+
+      tree.insertionPoint = leaves.get(in.getInt());
+
+      int refreshIndex = in.getInt();
+      tree.refreshPointer = refreshIndex >= 0 ? leaves.get(refreshIndex) : null;
+
+      // resolve the points of the coresets
+      for (int c = 0; c < unresolvedKeys.size(); c++) {
+        int[] keys = unresolvedKeys.get(c);
+        float[][] points = unresolvedPoints.get(c);
+        for (int j = 0; j < keys.length; j++) {
+          if (points[j] == null) {
+            points[j] = tree.leafFinder.get(keys[j]).point();
+          }
+        }
+      }
+
+      // the snapshot copies the points, so it is published once they are resolved
+      tree.publishCoreset();
+
+      return tree;
+    }
+  }
+
+  // writes the subtree at node in pre-order
+  private void writeNode(CheckpointWriter out, Node node) throws IOException {
+
+    if (node instanceof Leaf) {
+      Leaf leaf = (Leaf)node;
+      out.putInt(0);
+      out.putInt(leaf.key());
+      out.putFloats(leaf.point());
+      out.putFloat(leaf.weight());
+      return;
+    }
+
+    Internal internal = (Internal)node;
+
+    out.putInt(1);
+    writeCoreset(out, internal.getPoints(), internal.getWeights(), internal.getKeys(), internal.getSize());
+
+    writeNode(out, internal.left);
+    writeNode(out, internal.right);
+  }
+
+  // reads the subtree written by writeNode, adding its leaves in order
+  private Node readNode(CheckpointReader in, ArrayList<Leaf> leaves, ArrayList<int[]> unresolvedKeys, ArrayList<float[][]> unresolvedPoints) throws IOException {
+
+    if (in.getInt() == 0) {
+      int key = in.getInt();
+      float[] point = in.getFloats();
+
+      // the points of a checkpoint older than version 2 have unit weight
+      float weight = in.version() >= 2 ? in.getFloat() : 1.0f;
+
+      Leaf leaf = new Leaf(k, metric, m, innercore, key, point, weight);
+      leaves.add(leaf);
+      return leaf;
+    }
+
+    Internal internal = new Internal(k, metric, m, innercore);
+
+    // the arrays read become the output buffers of the node
+    int[] keys = in.getInts();
+    int capacity = Math.max(innercore.capacity(), keys.length);
+
+    float[] weights = in.getFloats(capacity);
+    float[][] points = readCoresetPoints(in, keys, capacity, unresolvedKeys, unresolvedPoints);
+
+    internal.setOutput(points, weights, Arrays.copyOf(keys, capacity), keys.length);
+
+    internal.left = readNode(in, leaves, unresolvedKeys, unresolvedPoints);
+    internal.right = readNode(in, leaves, unresolvedKeys, unresolvedPoints);
+
+    internal.left.parent = internal;
+    internal.right.parent = internal;
+
+    return internal;
+  }
+
+  // writes the first size points of a coreset, where a point that is the
+  // point of the leaf with the same key is only written as a reference
+  private void writeCoreset(CheckpointWriter out, float[][] points, float[] weights, int[] keys, int size) throws IOException {
+
+    out.putInts(keys, size);
+    out.putFloats(weights, size);
+
+    for (int j = 0; j < size; j++) {
+
+      Leaf leaf = leafFinder.get(keys[j]);
+
+      if (leaf != null && leaf.point() == points[j]) {
+        out.putInt(-1);
+      }
+      else {
+        out.putFloats(points[j]);
+      }
+    }
+  }
+
+  // reads the points of a coreset written by writeCoreset into a new array of
+  // the given capacity (at least the number of keys), the references to leaves
+  // are left null and the coreset is added to the unresolved ones
+  private static float[][] readCoresetPoints(CheckpointReader in, int[] keys, int capacity, ArrayList<int[]> unresolvedKeys, ArrayList<float[][]> unresolvedPoints) throws IOException {
+
+    float[][] points = new float[Math.max(capacity, keys.length)][];
+
+    boolean unresolved = false;
+
+    for (int j = 0; j < keys.length; j++) {
+
+      int length = in.getInt();
+
+      if (length < 0) {
+        unresolved = true;
+        continue;
+      }
+
+      points[j] = new float[length];
+      for (int i = 0; i < length; i++) {
+        points[j][i] = in.getFloat();
+      }
+    }
+
+    if (unresolved) {
+      unresolvedKeys.add(keys);
+      unresolvedPoints.add(points);
+    }
+
+    return points;
+  }
+
+  // the leftmost leaf of the subtree at node
+  private static Leaf firstLeaf(Internal node) {
+
+    Node first = node;
+    while (first instanceof Internal) {
+      first = ((Internal)first).left;
+    }
+
+    return (Leaf)first;
+  }
+
+  public String parameters() {
+    return "k=" + k + " m=" + m + " epsilon=" + epsilon;
+  }
+
   public String name() {
     return String.valueOf(k) + "_" + String.valueOf(m) + "_HK20";
   }
@@ -256,6 +635,13 @@ abstract class Node {
   // coreset threshold
   protected int m;
 
+  // the coreset construction shared by the nodes of the tree
+  protected CoresetBFL innercore;
+
+  // NOTE: the arrays returned by the getters below are buffers owned by this
+  // node which are overwritten when it is recomputed, and only their first
+  // getSize() entries are valid
+
   // retrives the set of points in the subtree at this node
   public abstract float[][] getPoints();
 
@@ -265,9 +651,18 @@ abstract class Node {
   // retrives the set of keys of the points in the subtree at this node
   public abstract int[] getKeys();
 
+  // the number of points in the set
+  public abstract int getSize();
+
   // recomputes all notes from here to root
   public abstract void recomputeUpwards(int n, float lambda, float epsilon);
 
+  // marks all internal nodes from here to root for recomputation
+  public abstract void markUpwards();
+
+  // recomputes the marked nodes in the subtree at this node, children first
+  public abstract void recomputeMarked(int n, float lambda, float epsilon);
+
   // for debugging
   public abstract void print();
 }
@@ -287,24 +682,27 @@ class Internal extends Node {
   // right child of this node
   public Node right;
 
-  // the weighted set maintained as the output of this node
+  // the weighted set maintained as the output of this node, the first
+  // outSize entries of buffers which are reused between recomputations
   private float[][] outPoints;
   private float[] outWeights;
   private int[] outKeys;
+  private int outSize;
 
-  // the coreset maintained here
-  private CoresetBFL innercore;
+  // whether this node is marked for recomputation (if so, so are all the
+  // nodes on its path to the root)
+  private boolean marked;
 
-  Internal(int k, Metric metric, int m) {
+  Internal(int k, Metric metric, int m, CoresetBFL innercore) {
     this.k = k;
     this.metric = metric;
     this.m = m;
+    this.innercore = innercore;
 
-    this.outPoints = new float[0][0];
-    this.outWeights = new float[0];
-    this.outKeys = new int[0];
-
-    innercore = new CoresetBFL(k, metric, m);
+    this.outPoints = new float[innercore.capacity()][];
+    this.outWeights = new float[innercore.capacity()];
+    this.outKeys = new int[innercore.capacity()];
+    this.outSize = 0;
   }
 
   // continue the recomputation
@@ -317,43 +715,57 @@ class Internal extends Node {
       parent.recomputeUpwards(n, lambda, epsilon);
   }
 
-  // run the static coreset algorithm on union of inputs
-  public void recompute(int n, float lambda, float epsilon) {
+  // continue the marking, stopping at the first marked node
+  public void markUpwards() {
 
-    // get the union of the inputs
-    float[][] leftPoints = left.getPoints();
-    float[][] rightPoints = right.getPoints();
+    if (marked) return;
 
-    float[][] inPoints = new float[leftPoints.length + rightPoints.length][];
+    marked = true;
 
-    float[] leftWeights = left.getWeights();
-    float[] rightWeights = right.getWeights();
+    if (parent != null)
+      parent.markUpwards();
+  }
 
-    float[] inWeights = new float[leftWeights.length + rightWeights.length];
+  // recompute the marked children and then this node
+  public void recomputeMarked(int n, float lambda, float epsilon) {
 
-    int[] leftKeys = left.getKeys();
-    int[] rightKeys = right.getKeys();
+    if (!marked) return;
 
-    int[] inKeys = new int[leftKeys.length + rightKeys.length];
+    left.recomputeMarked(n, lambda, epsilon);
+    right.recomputeMarked(n, lambda, epsilon);
 
-    for (int i = 0; i < leftPoints.length; i++) {
-      inPoints[i] = leftPoints[i];
-      inWeights[i] = leftWeights[i];
-      inKeys[i] = leftKeys[i];
-    }
+    recompute(n, lambda, epsilon);
+
+    marked = false;
+  }
+
+  // run the static coreset algorithm on union of inputs
+  public void recompute(int n, float lambda, float epsilon) {
+
+    // the union of the inputs is read from the buffers of the children
+    innercore.clearInput();
+    innercore.addInput(left.getPoints(), left.getWeights(), left.getKeys(), left.getSize());
+    innercore.addInput(right.getPoints(), right.getWeights(), right.getKeys(), right.getSize());
 
-    for (int i = 0; i < rightPoints.length; i++) {
-      inPoints[i + leftPoints.length] = rightPoints[i];
-      inWeights[i + leftPoints.length] = rightWeights[i];
-      inKeys[i + leftPoints.length] = rightKeys[i];
+    // compute the coreset into the buffers of this node (dropping the points
+    // of the previous output it no longer holds)
+    int size = innercore.construct(lambda, epsilon, outPoints, outWeights, outKeys);
+
+    if (size < outSize) {
+      Arrays.fill(outPoints, size, outSize, null);
     }
+    outSize = size;
 
-    // compute the coreset
-    innercore.construct(inPoints, inWeights, inKeys, lambda, epsilon);
+    innercore.clearInput();
+  }
 
-    outPoints = innercore.getPoints();
-    outWeights = innercore.getWeights();
-    outKeys = innercore.getKeys();
+  // set the coreset output (when restoring a checkpoint), the arrays become
+  // the buffers of this node
+  public void setOutput(float[][] points, float[] weights, int[] keys, int size) {
+    outPoints = points;
+    outWeights = weights;
+    outKeys = keys;
+    outSize = size;
   }
 
   // return coreset output points
@@ -371,6 +783,11 @@ class Internal extends Node {
     return outKeys;
   }
 
+  // return coreset output size
+  public int getSize() {
+    return outSize;
+  }
+
   // METHOD FOR DEBUGGING
   public void print() {
     left.print();
@@ -390,8 +807,14 @@ class Leaf extends Node {
   // the key of the point at this leaf
   private int key;
 
-  // the point at this leaf
+  // the point at this leaf and its weight
   private float[] point;
+  private float weight;
+
+  // the point, weight and key as a weighted set of one point
+  private float[][] points = new float[1][];
+  private float[] weights = new float[1];
+  private int[] keys = new int[1];
 
   // gets the next leaf
   public Leaf next;
@@ -399,16 +822,18 @@ class Leaf extends Node {
   // gets the previous leaf
   public Leaf last;
 
-  Leaf(int k, Metric metric, int m, int key, float[] point) {
+  Leaf(int k, Metric metric, int m, CoresetBFL innercore, int key, float[] point, float weight) {
     this.k = k;
     this.metric = metric;
     this.m = m;
-    this.key = key;
-    this.point = point;
+    this.innercore = innercore;
+
+    replace(key, point, weight);
   }
 
   // turns leaf into an internal node and adds and returns a new leaf
-  public Internal insert(Leaf leaf, int n, float lambda, float epsilon) {
+  // NOTE: the path from the new leaf to the root must then be recomputed
+  public Internal insert(Leaf leaf) {
 
     // set the next and right pointers
     leaf.last = this;
@@ -417,7 +842,7 @@ class Leaf extends Node {
     this.next = leaf;
 
     // create new internal node
-    Internal internal = new Internal(k, metric, m);
+    Internal internal = new Internal(k, metric, m, innercore);
 
     // set the pointer of the parent node
     if (this.parent != null) {
@@ -438,17 +863,15 @@ class Leaf extends Node {
     this.parent = internal;
     leaf.parent = internal;
 
-    // recompute the node to leaf path from this.next
-    this.next.recomputeUpwards(n, lambda, epsilon);
-
     // return the new leaf
     return internal;
   }
 
   // remove this leaf from the tree and replaces parent with its sibling
   // NOTE: we assume in this method that the the tree is balanced and we are
-  // deleting the last leaf on the lowest layer of the tree!
-  public Leaf delete(int n, float lambda, float epsilon) {
+  // deleting the last leaf on the lowest layer of the tree! the path from its
+  // sibling to the root must then be recomputed
+  public Leaf delete() {
 
     // the leafs sibling
     Leaf leaf = (Leaf)this.parent.left;
@@ -470,54 +893,56 @@ class Leaf extends Node {
     // set leafs parent to its grandparent
     leaf.parent = leaf.parent.parent;
 
-    // recompute the node to leaf path from leaf
-    leaf.recomputeUpwards(n, lambda, epsilon);
-
     return this;
   }
 
-  // replace the point at this leaf
-  public void replace(int key, float[] point, int n, float lambda, float epsilon) {
+  // replace the point at this leaf (the path to the root must then be recomputed)
+  public void replace(int key, float[] point, float weight) {
     this.key = key;
     this.point = point;
+    this.weight = weight;
 
-    // recompute with the new point
-    recomputeUpwards(n, lambda, epsilon);
+    this.points[0] = point;
+    this.weights[0] = weight;
+    this.keys[0] = key;
   }
 
   // return the single point
   public float[][] getPoints() {
-
-    float[][] points = new float[1][point.length];
-    points[0] = point;
-
     return points;
   }
 
-  // return a weight of 1
+  // return the weight of the point
   public float[] getWeights() {
-
-    float[] weights = new float[1];
-    weights[0] = 1;
-
     return weights;
   }
 
   // return the key
   public int[] getKeys() {
-
-    int[] keys = new int[1];
-    keys[0] = key;
-
     return keys;
   }
 
+  // a leaf holds one point
+  public int getSize() {
+    return 1;
+  }
+
   // continue the recomputation
   public void recomputeUpwards(int n, float lambda, float epsilon) {
     if (parent != null)
       parent.recomputeUpwards(n, lambda, epsilon);
   }
 
+  // continue the marking
+  public void markUpwards() {
+    if (parent != null)
+      parent.markUpwards();
+  }
+
+  // a leaf has nothing to recompute
+  public void recomputeMarked(int n, float lambda, float epsilon) {
+  }
+
   // return the key at this leaf
   public int key() {
     return key;
@@ -528,6 +953,11 @@ class Leaf extends Node {
     return point;
   }
 
+  // returns the weight of the point at this leaf
+  public float weight() {
+    return weight;
+  }
+
   // PRINTING FOR DEBUGGING
   public void print() {
     System.out.print(key);
@@ -0,0 +1,270 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+
+hash map from int keys to float values using open addressing with linear
+probing, avoids the boxing and per entry objects of TreeMap<Integer, Float>
+
+the keys are iterated in no particular order through positions, without
+allocating an iterator:
+
+  for (int i = map.first(); i >= 0; i = map.next(i)) {
+    int key = map.keyAt(i);
+    float value = map.valueAt(i);
+  }
+
+the map must not be modified during such an iteration, except through setValueAt
+
+*/
+
+class IntFloatMap {
+
+  // marks an empty bucket (the key EMPTY itself is stored separately)
+  private static final int EMPTY = Integer.MIN_VALUE;
+
+  // the buckets
+  private int[] keys;
+  private float[] values;
+
+  // number of keys in the buckets
+  private int size;
+
+  // buckets.length - 1, the number of buckets is a power of two
+  private int mask;
+
+  // the value of the key EMPTY, if it is in the map
+  private boolean hasEmptyKey;
+  private float emptyKeyValue;
+
+  IntFloatMap(int expectedSize) {
+    allocate(bucketsFor(expectedSize));
+  }
+
+  IntFloatMap() {
+    this(16);
+  }
+
+  // returns the value of key, or missing if key is not in the map
+  public float get(int key, float missing) {
+
+    if (key == EMPTY) {
+      return hasEmptyKey ? emptyKeyValue : missing;
+    }
+
+    int i = bucket(key);
+    while (keys[i] != EMPTY) {
+      if (keys[i] == key) return values[i];
+      i = (i + 1) & mask;
+    }
+
+    return missing;
+  }
+
+  // checks if key is in the map
+  public boolean containsKey(int key) {
+
+    if (key == EMPTY) {
+      return hasEmptyKey;
+    }
+
+    int i = bucket(key);
+    while (keys[i] != EMPTY) {
+      if (keys[i] == key) return true;
+      i = (i + 1) & mask;
+    }
+
+    return false;
+  }
+
+  // maps key to value
+  public void put(int key, float value) {
+
+    if (key == EMPTY) {
+      hasEmptyKey = true;
+      emptyKeyValue = value;
+      return;
+    }
+
+    int i = bucket(key);
+    while (keys[i] != EMPTY) {
+      if (keys[i] == key) {
+        values[i] = value;
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+
+    keys[i] = key;
+    values[i] = value;
+    size++;
+
+    // keep the load factor below 1/2
+    if (2*size > keys.length) {
+      rehash(2*keys.length);
+    }
+  }
+
+  // removes key and returns its value, or missing if key is not in the map
+  public float remove(int key, float missing) {
+
+    if (key == EMPTY) {
+      if (!hasEmptyKey) return missing;
+      hasEmptyKey = false;
+      return emptyKeyValue;
+    }
+
+    int i = bucket(key);
+    while (keys[i] != EMPTY) {
+      if (keys[i] == key) {
+        float value = values[i];
+        shiftBack(i);
+        size--;
+        return value;
+      }
+      i = (i + 1) & mask;
+    }
+
+    return missing;
+  }
+
+  // the number of keys in the map
+  public int size() {
+    return hasEmptyKey ? size + 1 : size;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  // writes the table to a checkpoint
+  public void write(CheckpointWriter out) throws IOException {
+    out.putInt(size);
+    out.putBoolean(hasEmptyKey);
+    out.putFloat(emptyKeyValue);
+    out.putInts(keys);
+    out.putFloats(values);
+  }
+
+  // reads a table written by write
+  public static IntFloatMap read(CheckpointReader in) throws IOException {
+
+    IntFloatMap map = new IntFloatMap(0);
+
+    map.size = in.getInt();
+    map.hasEmptyKey = in.getBoolean();
+    map.emptyKeyValue = in.getFloat();
+    map.keys = in.getInts();
+    map.values = in.getFloats();
+    map.mask = map.keys.length - 1;
+
+    return map;
+  }
+
+  // removes all keys
+  public void clear() {
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+    hasEmptyKey = false;
+  }
+
+  // the first position of an iteration, or -1 if the map is empty
+  public int first() {
+    return next(-1);
+  }
+
+  // the position following position i, or -1 if i is the last position (the
+  // key EMPTY, if present, has the position keys.length)
+  public int next(int i) {
+
+    while (++i < keys.length) {
+      if (keys[i] != EMPTY) return i;
+    }
+
+    return (i == keys.length && hasEmptyKey) ? i : -1;
+  }
+
+  // the key at position i
+  public int keyAt(int i) {
+    return i == keys.length ? EMPTY : keys[i];
+  }
+
+  // the value at position i
+  public float valueAt(int i) {
+    return i == keys.length ? emptyKeyValue : values[i];
+  }
+
+  // replaces the value at position i
+  public void setValueAt(int i, float value) {
+    if (i == keys.length) emptyKeyValue = value;
+    else values[i] = value;
+  }
+
+  // fills the hole at bucket i by moving back later keys of the same probe run
+  private void shiftBack(int i) {
+
+    int j = i;
+
+    while (true) {
+
+      j = (j + 1) & mask;
+
+      if (keys[j] == EMPTY) break;
+
+      // the key at j can move to i if its home bucket is not in (i, j]
+      int home = bucket(keys[j]);
+      if (((j - home) & mask) >= ((j - i) & mask)) {
+        keys[i] = keys[j];
+        values[i] = values[j];
+        i = j;
+      }
+    }
+
+    keys[i] = EMPTY;
+  }
+
+  // the home bucket of key
+  private int bucket(int key) {
+    int h = key*0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  // moves all keys to a table with the given number of buckets
+  private void rehash(int buckets) {
+
+    int[] oldKeys = keys;
+    float[] oldValues = values;
+
+    allocate(buckets);
+
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        int j = bucket(oldKeys[i]);
+        while (keys[j] != EMPTY) {
+          j = (j + 1) & mask;
+        }
+        keys[j] = oldKeys[i];
+        values[j] = oldValues[i];
+        size++;
+      }
+    }
+  }
+
+  // creates an empty table
+  private void allocate(int buckets) {
+    keys = new int[buckets];
+    values = new float[buckets];
+    Arrays.fill(keys, EMPTY);
+    mask = buckets - 1;
+    size = 0;
+  }
+
+  // smallest power of two that keeps expectedSize keys below load factor 1/2
+  private static int bucketsFor(int expectedSize) {
+    int buckets = 4;
+    while (buckets < 2*expectedSize) {
+      buckets *= 2;
+    }
+    return buckets;
+  }
+}
@@ -33,11 +33,25 @@ class KMeansPlusPlus {
   // number of post processing iterations
   private int iterations;
 
-  // the clusters we want to find
-  private int[][] clusters;
+  // the clusters we want to find, cluster i holds the points
+  // clusterMembers[clusterStart[i]], ..., clusterMembers[clusterStart[i+1] - 1]
+  private int clusterCount;
+  private int[] clusterStart = new int[0];
+  private int[] clusterMembers = new int[0];
 
   // the centers of these clusters
-  private int[] clusterCenters;
+  private int[] clusterCenters = new int[0];
+
+  // buffers reused between runs (grown as needed), so that running on inputs
+  // of a similar size again allocates nothing
+  private int[] assignment = new int[0];
+  private float[] probs = new float[0];
+  private float[] dist = new float[0];
+  private float[] sampleDist = new float[0];
+  private float[][] centers = new float[0][0];
+  private float[] centerDist = new float[0];
+
+  private Random rng = new Random();
 
   // set the metric and the value k
   KMeansPlusPlus(int k, Metric metric, int iterations) {
@@ -114,23 +128,63 @@ class KMeansPlusPlus {
 
   public TreeMap<Integer, Integer> cluster(float[][] points, float[] weights, int[] keys, float[][] startingConfig) {
 
-    // set the points and the weights
+    if (points.length == 0) {
+      return new TreeMap<Integer, Integer>();
+    }
+
+    setInput(points, weights, keys, points.length);
+
+    return kmeansplusplus(iterations, startingConfig);
+  }
+
+  // computes the clusters and their centers for the first n points without
+  // building a solution (see getClusterStart, getClusterMembers and
+  // getClusterCenters), allocating nothing once the buffers are large enough
+  public void approximate(float[][] points, float[] weights, int n) {
+
+    setInput(points, weights, null, n);
+
+    if (n <= k) {
+      returnAll();
+      return;
+    }
+
+    seedStartingCenters();
+
+    kmeans(iterations);
+
+    setClusterCenters();
+  }
+
+  // sets the input to the first n points and grows the buffers to fit it
+  private void setInput(float[][] points, float[] weights, int[] keys, int n) {
+
     this.points = points;
     this.weights = weights;
     this.keys = keys;
 
-    // the number of points
-    this.n = points.length;
+    this.n = n;
+    this.d = n > 0 ? points[0].length : 0;
 
-    // set the dimension of the data
-    if (this.n > 0) {
-      this.d = points[0].length;
+    if (assignment.length < n) {
+      int capacity = Math.max(n, 2*assignment.length);
+      assignment = new int[capacity];
+      clusterMembers = new int[capacity];
+      probs = new float[capacity];
+      dist = new float[capacity];
+      sampleDist = new float[capacity];
     }
-    else {
-      return new TreeMap<Integer, Integer>();
+
+    // there are at most k clusters
+    if (clusterStart.length < k + 1) {
+      clusterStart = new int[k + 1];
+      clusterCenters = new int[k];
     }
 
-    return kmeansplusplus(iterations, startingConfig);
+    if (centers.length < k || (k > 0 && centers[0].length != d)) {
+      centers = new float[k][d];
+      centerDist = new float[k];
+    }
   }
 
   /*
@@ -171,20 +225,23 @@ class KMeansPlusPlus {
   // create a trivial solution if n is too small
   private TreeMap<Integer, Integer > returnAll() {
 
-    this.clusters = new int[n][1];
+    // each point is a cluster and its center
+    this.clusterCount = n;
 
-    // create the clusters and centers
-    this.clusterCenters = new int[n];
+    for (int i = 0; i < n; i++) {
+      this.clusterStart[i] = i;
+      this.clusterMembers[i] = i;
+      this.clusterCenters[i] = i;
+    }
+    this.clusterStart[n] = n;
+
+    if (keys == null) return null;
 
     // create solution
     TreeMap<Integer, Integer> solution = new TreeMap<Integer, Integer>();
 
-    int i = 0;
-    for (int key : keys) {
-      solution.put(key, key);
-      this.clusters[i][0] = i;
-      this.clusterCenters[i] = i;
-      i++;
+    for (int i = 0; i < n; i++) {
+      solution.put(keys[i], keys[i]);
     }
     return solution;
   }
@@ -200,31 +257,23 @@ class KMeansPlusPlus {
     }
 
     // create array with sampling probabilities
-    float[] probs = new float[n];
-
     for (int i = 0; i < n; i++) {
       probs[i] = weights[i]/totalWeight;
     }
 
-    // create random number generator
-    Random rng = new Random();
-
-    float[][] samplePoints = new float[k][d];
-
     // distances from samples points
-    float[] dist = new float[n];
-    Arrays.fill(dist, Float.POSITIVE_INFINITY);
+    Arrays.fill(dist, 0, n, Float.POSITIVE_INFINITY);
 
     for (int i = 0; i < k; i++) {
-      samplePoints[i] = points[dSquaredWeighting(rng, probs, dist)];
+      System.arraycopy(points[dSquaredWeighting(rng, probs, dist, sampleDist)], 0, centers[i], 0, d);
     }
 
     // create the initial clusters
-    createClusters(samplePoints);
+    createClusters(centers);
   }
 
   // sample a point according to D^2 weighting
-  private int dSquaredWeighting(Random rng, float[] probs, float[] dist) {
+  private int dSquaredWeighting(Random rng, float[] probs, float[] dist, float[] sampleDist) {
 
     float r = rng.nextFloat();
     float s = 0;
@@ -243,8 +292,10 @@ class KMeansPlusPlus {
     // compute the new distances and probabilities
     float totalDSquared = 0;
 
+    metric.distances(points[sample], points, n, sampleDist);
+
     for (int i = 0; i < n; i++) {
-      dist[i] = Math.min(dist[i], metric.d(points[i], points[sample]));
+      dist[i] = Math.min(dist[i], sampleDist[i]);
       totalDSquared += weights[i]*dist[i]*dist[i];
     }
 
@@ -267,17 +318,18 @@ class KMeansPlusPlus {
   // get the point in cluster i closest to the center of mass of cluster i
   private int getClusterCenter(int i) {
 
-    float[] centerOfMass = clusterCenterOfMass(i);
-
-    if (clusters[i].length == 0) {
+    if (clusterStart[i] == clusterStart[i + 1]) {
       return 0;
     }
 
-    int closestPoint = clusters[i][0];
+    float[] centerOfMass = clusterCenterOfMass(i, centers[i]);
+
+    int closestPoint = clusterMembers[clusterStart[i]];
     float dist = Float.POSITIVE_INFINITY;
 
-    for (int j : clusters[i]) {
-      float d = metric.d(points[j], centerOfMass);
+    for (int e = clusterStart[i]; e < clusterStart[i + 1]; e++) {
+      int j = clusterMembers[e];
+      float d = metric.cd(points[j], centerOfMass);
       if (d < dist) {
         closestPoint = j;
         dist = d;
@@ -300,16 +352,14 @@ class KMeansPlusPlus {
   private void kmeansIteration() {
 
     // find the centers of mass
-    float[][] newCenters = new float[k][d];
-
     for (int i = 0; i < k; i++) {
 
       // get cluster center of mass
-      newCenters[i] = clusterCenterOfMass(i);
+      clusterCenterOfMass(i, centers[i]);
     }
 
     // create the new clusters
-    createClusters(newCenters);
+    createClusters(centers);
   }
 
   // given the new centers create the clusters
@@ -330,59 +380,63 @@ class KMeansPlusPlus {
       }
     }
 
-    @SuppressWarnings("unchecked")
-    ArrayList<Integer>[] tempClusters = new ArrayList[k];
-
-    // reset the clusters
-    for (int i = 0; i < k; i++) {
-      tempClusters[i] = new ArrayList<Integer>();
-    }
-
     // re-allocate points to clusters
     for (int i = 0; i < n; i++) {
 
       float dist = Float.POSITIVE_INFINITY;
       int l = 0;
 
-      for (int j = 0; j < k; j++) {
+      metric.cds(points[i], newCenters, k, centerDist);
 
-        float d = metric.d(newCenters[j], points[i]);
+      for (int j = 0; j < k; j++) {
 
         // is point is closer to cluster center j than l
-        if (d < dist) {
-          dist = d;
+        if (centerDist[j] < dist) {
+          dist = centerDist[j];
           l = j;
         }
       }
 
       // place point in cluster l
-      tempClusters[l].add(i);
+      assignment[i] = l;
     }
 
-    clusters = new int[k][];
+    // place the points of each cluster one after the other (in increasing
+    // order within each cluster)
+    clusterCount = k;
+
+    Arrays.fill(clusterStart, 0, k + 1, 0);
+
+    for (int i = 0; i < n; i++) {
+      clusterStart[assignment[i] + 1]++;
+    }
 
     for (int i = 0; i < k; i++) {
-      clusters[i] = new int[tempClusters[i].size()];
+      clusterStart[i + 1] += clusterStart[i];
+    }
 
-      for (int j = 0; j < clusters[i].length; j++) {
-        clusters[i][j] = (int)(tempClusters[i].get(j));
-      }
+    for (int i = 0; i < n; i++) {
+      clusterMembers[clusterStart[assignment[i]]++] = i;
     }
-  }
 
-  // returns the center of mass of cluster i
-  private float[] clusterCenterOfMass(int i) {
+    // each start was moved to the start of the next cluster
+    for (int i = k; i > 0; i--) {
+      clusterStart[i] = clusterStart[i - 1];
+    }
+    clusterStart[0] = 0;
+  }
 
-    // the center of mass
-    float[] center = new float[d];
+  // computes the center of mass of cluster i into center and returns it
+  private float[] clusterCenterOfMass(int i, float[] center) {
 
-    // the points in the cluster
-    int[] cluster = clusters[i];
+    Arrays.fill(center, 0);
 
     // total weight of points in this cluster
     float totalWeight = 0;
 
-    for (int p : cluster) {
+    for (int e = clusterStart[i]; e < clusterStart[i + 1]; e++) {
+
+      int p = clusterMembers[e];
 
       // get the point and its weight
       float[] x = points[p];
@@ -405,23 +459,40 @@ class KMeansPlusPlus {
   // get the centers from the clusters and return them
   private TreeMap<Integer, Integer> createSolution() {
 
+    setClusterCenters();
+
     TreeMap<Integer, Integer> solution = new TreeMap<Integer, Integer>();
 
     // put cluster centers
-    this.clusterCenters = new int[k];
-
     for (int i = 0; i < k; i++) {
-      int p = getClusterCenter(i);
+      int p = clusterCenters[i];
       solution.put(keys[p], keys[p]);
-      this.clusterCenters[i] = p;
     }
 
     return solution;
   }
 
-  // get the clusters
-  public int[][] getClusters() {
-    return clusters;
+  // set the center of each cluster
+  private void setClusterCenters() {
+    for (int i = 0; i < k; i++) {
+      this.clusterCenters[i] = getClusterCenter(i);
+    }
+  }
+
+  // the number of clusters
+  public int getClusterCount() {
+    return clusterCount;
+  }
+
+  // the clusters, cluster i holds the points getClusterMembers()[j] for
+  // getClusterStart()[i] <= j < getClusterStart()[i+1] (the arrays are reused
+  // by the next run)
+  public int[] getClusterStart() {
+    return clusterStart;
+  }
+
+  public int[] getClusterMembers() {
+    return clusterMembers;
   }
 
   // get the cluster centers
@@ -0,0 +1,161 @@
+/*
+
+GEMM style engine computing distance matrices for the L2 norm, the squared
+distances are computed as ||x||^2 + ||y||^2 - 2<x, y> using precomputed norms
+and a register blocked kernel that evaluates 4 x 4 dot products per pass over
+the coordinates, entries that suffer from cancellation (i.e. the squared
+distance is tiny compared to the norms) are recomputed directly
+
+*/
+
+class L2DistanceMatrix {
+
+  // number of floats of ys kept in cache while streaming through xs
+  private static final int TILE_FLOATS = 8192;
+
+  // entries with squared distance below CORRECTION*(||x||^2 + ||y||^2) are
+  // recomputed directly, since the dot products are accumulated in double
+  // precision the remaining entries are accurate to float precision
+  private static final double CORRECTION = 1e-6;
+
+  // sets out[i][j] = d(xs[i], ys[j]) for the first n points in xs and m in ys
+  public static void compute(float[][] xs, int n, float[][] ys, int m, float[][] out, float noise) {
+
+    if (n == 0 || m == 0) return;
+
+    // if the matrix is symmetric we only compute the upper triangle
+    boolean symmetric = (xs == ys && n == m);
+
+    double[] xNorms = norms(xs, n);
+    double[] yNorms = symmetric ? xNorms : norms(ys, m);
+
+    // dot products of a 4 x 4 block
+    double[] dots = new double[16];
+
+    // number of points of ys in a tile (a multiple of 4)
+    int tile = Math.max(4, (TILE_FLOATS/Math.max(1, xs[0].length)) & ~3);
+
+    for (int from = 0; from < m; from += tile) {
+
+      int to = Math.min(m, from + tile);
+
+      for (int i = 0; i < n; i += 4) {
+
+        int ib = Math.min(4, n - i);
+
+        for (int j = from; j < to; j += 4) {
+
+          int jb = Math.min(4, to - j);
+
+          // skip blocks below the diagonal
+          if (symmetric && j + jb <= i) continue;
+
+          if (ib == 4 && jb == 4) {
+            dot4x4(xs[i], xs[i+1], xs[i+2], xs[i+3], ys[j], ys[j+1], ys[j+2], ys[j+3], dots);
+          }
+          else {
+            for (int a = 0; a < ib; a++) {
+              for (int b = 0; b < jb; b++) {
+                dots[4*a + b] = dot(xs[i + a], ys[j + b]);
+              }
+            }
+          }
+
+          for (int a = 0; a < ib; a++) {
+            for (int b = 0; b < jb; b++) {
+
+              float[] x = xs[i + a];
+              float[] y = ys[j + b];
+
+              double norms = xNorms[i + a] + yNorms[j + b];
+              double sq = norms - 2*dots[4*a + b];
+
+              // correct for cancellation
+              if (sq < CORRECTION*norms) {
+                sq = squaredDistance(x, y);
+              }
+
+              float d = (float)Math.sqrt(sq) + noise;
+
+              out[i + a][j + b] = d;
+              if (symmetric) out[j + b][i + a] = d;
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // the squared norms of the first n points
+  private static double[] norms(float[][] xs, int n) {
+
+    double[] norms = new double[n];
+
+    for (int i = 0; i < n; i++) {
+      norms[i] = dot(xs[i], xs[i]);
+    }
+
+    return norms;
+  }
+
+  // squared distance between two points, computed directly
+  private static double squaredDistance(float[] x, float[] y) {
+
+    double s = 0;
+
+    for (int l = 0; l < x.length; l++) {
+      double a = x[l] - y[l];
+      s += a*a;
+    }
+
+    return s;
+  }
+
+  // dot product of two points
+  private static double dot(float[] x, float[] y) {
+
+    double s0 = 0, s1 = 0;
+
+    int len = x.length;
+    int l = 0;
+
+    for (; l + 1 < len; l += 2) {
+      s0 += (double)x[l]*y[l];
+      s1 += (double)x[l+1]*y[l+1];
+    }
+
+    if (l < len) {
+      s0 += (double)x[l]*y[l];
+    }
+
+    return s0 + s1;
+  }
+
+  // dot products of the points x0, ..., x3 with the points y0, ..., y3, where
+  // dots[4*a + b] = <x_a, y_b>
+  private static void dot4x4(float[] x0, float[] x1, float[] x2, float[] x3, float[] y0, float[] y1, float[] y2, float[] y3, double[] dots) {
+
+    double s00 = 0, s01 = 0, s02 = 0, s03 = 0;
+    double s10 = 0, s11 = 0, s12 = 0, s13 = 0;
+    double s20 = 0, s21 = 0, s22 = 0, s23 = 0;
+    double s30 = 0, s31 = 0, s32 = 0, s33 = 0;
+
+    int len = x0.length;
+
+    for (int l = 0; l < len; l++) {
+
+      double a0 = x0[l], a1 = x1[l], a2 = x2[l], a3 = x3[l];
+      double b0 = y0[l], b1 = y1[l], b2 = y2[l], b3 = y3[l];
+
+      s00 += a0*b0; s01 += a0*b1; s02 += a0*b2; s03 += a0*b3;
+      s10 += a1*b0; s11 += a1*b1; s12 += a1*b2; s13 += a1*b3;
+      s20 += a2*b0; s21 += a2*b1; s22 += a2*b2; s23 += a2*b3;
+      s30 += a3*b0; s31 += a3*b1; s32 += a3*b2; s33 += a3*b3;
+    }
+
+    dots[0] = s00; dots[1] = s01; dots[2] = s02; dots[3] = s03;
+    dots[4] = s10; dots[5] = s11; dots[6] = s12; dots[7] = s13;
+    dots[8] = s20; dots[9] = s21; dots[10] = s22; dots[11] = s23;
+    dots[12] = s30; dots[13] = s31; dots[14] = s32; dots[15] = s33;
+  }
+}
@@ -0,0 +1,183 @@
+import java.util.*;
+import java.io.*;
+
+/*
+
+histogram of latencies (in nano seconds) with logarithmically sized buckets,
+in the style of HdrHistogram: values below 2^SUB_BITS are counted exactly and
+every larger power of two range [2^e, 2^(e+1)) is split into 2^(SUB_BITS-1)
+equally sized buckets, so any recorded value is known up to a relative error
+of 2^-(SUB_BITS-1) (under 1%) while recording costs a few instructions and the
+histogram takes a fixed 58KB regardless of the range of the values
+
+*/
+
+class LatencyHistogram {
+
+  // number of bits of precision kept for each value
+  private static final int SUB_BITS = 8;
+
+  // number of buckets each power of two range is split into
+  private static final int HALF = 1 << (SUB_BITS - 1);
+
+  // number of buckets needed for all non-negative longs
+  private static final int BUCKETS = (64 - SUB_BITS + 1)*HALF;
+
+  // the percentiles reported by writePercentiles
+  private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+  private long[] counts;
+
+  private long count;
+  private long total;
+  private long min;
+  private long max;
+
+  // constructer
+  public LatencyHistogram() {
+    this.counts = new long[BUCKETS];
+    this.reset();
+  }
+
+  // record a latency
+  public void record(long value) {
+
+    if (value < 0) value = 0;
+
+    this.counts[index(value)]++;
+
+    this.count++;
+    this.total += value;
+
+    if (value < this.min) this.min = value;
+    if (value > this.max) this.max = value;
+  }
+
+  // add all the values recorded by other to this histogram
+  public void add(LatencyHistogram other) {
+
+    for (int i = 0; i < BUCKETS; i++) {
+      this.counts[i] += other.counts[i];
+    }
+
+    this.count += other.count;
+    this.total += other.total;
+    this.min = Math.min(this.min, other.min);
+    this.max = Math.max(this.max, other.max);
+  }
+
+  // remove all recorded values
+  public void reset() {
+    Arrays.fill(this.counts, 0);
+    this.count = 0;
+    this.total = 0;
+    this.min = Long.MAX_VALUE;
+    this.max = 0;
+  }
+
+  public long count() {
+    return this.count;
+  }
+
+  public long total() {
+    return this.total;
+  }
+
+  public long min() {
+    return this.count == 0 ? 0 : this.min;
+  }
+
+  public long max() {
+    return this.max;
+  }
+
+  public double mean() {
+    return this.count == 0 ? 0 : (double)this.total/this.count;
+  }
+
+  // the smallest recorded value v such that at least percentile% of the
+  // recorded values are at most v (up to the precision of the buckets)
+  public long valueAtPercentile(double percentile) {
+
+    if (this.count == 0) return 0;
+
+    long rank = (long)Math.ceil(percentile/100*this.count);
+    if (rank < 1) rank = 1;
+
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+
+        // the largest value in the bucket, but never more than the maximum
+        return Math.min(highestValue(i), this.max);
+      }
+    }
+
+    return this.max;
+  }
+
+  // write a table with the count, mean and percentiles of this histogram
+  public void writePercentiles(PrintWriter out, String name) {
+
+    out.print(String.format("%-16s %10d %12.0f", name, this.count, this.mean()));
+
+    for (double percentile : PERCENTILES) {
+      out.print(String.format(" %12d", this.valueAtPercentile(percentile)));
+    }
+
+    out.println(String.format(" %12d", this.max));
+  }
+
+  // header for the rows written by writePercentiles
+  public static void writePercentilesHeader(PrintWriter out) {
+
+    out.print(String.format("%-16s %10s %12s", "#", "count", "mean"));
+
+    for (double percentile : PERCENTILES) {
+      out.print(String.format(" %12s", "p" + (percentile == (long)percentile ? Long.toString((long)percentile) : Double.toString(percentile))));
+    }
+
+    out.println(String.format(" %12s", "max"));
+  }
+
+  // write the non-empty buckets as value:count pairs, where value is the
+  // largest value in the bucket
+  public void writeBuckets(PrintWriter out) {
+
+    boolean first = true;
+
+    for (int i = 0; i < BUCKETS; i++) {
+      if (this.counts[i] == 0) continue;
+
+      if (!first) out.print(",");
+      out.print(highestValue(i));
+      out.print(":");
+      out.print(this.counts[i]);
+
+      first = false;
+    }
+  }
+
+  // index of the bucket containing value
+  private static int index(long value) {
+
+    if (value < 2*HALF) return (int)value;
+
+    // shift so that value >> shift lies in [HALF, 2*HALF)
+    int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+
+    return shift*HALF + (int)(value >>> shift);
+  }
+
+  // largest value in the bucket with this index
+  private static long highestValue(int index) {
+
+    if (index < 2*HALF) return index;
+
+    int shift = index/HALF - 1;
+    long sub = index % HALF + HALF;
+
+    return ((sub + 1) << shift) - 1;
+  }
+}
@@ -1,4 +1,5 @@
 import java.lang.Math;
+import java.util.Arrays;
 
 // implementation of metrics defined on R^n
 abstract class Metric {
@@ -6,14 +7,76 @@ abstract class Metric {
   // computes the distance between two points with respect to this metric
   public abstract float d(float[] x, float[] y);
 
+  // computes a quantity that is monotone in the distance between two points,
+  // use this when distances only need to be compared (e.g. to find a closest point)
+  public float cd(float[] x, float[] y) {
+    return d(x, y);
+  }
+
+  // converts a value returned by cd into the corresponding distance
+  public float cdToD(float c) {
+    return c;
+  }
+
+  /*
+
+  batched versions of d and cd, subclasses should override these with kernels
+  that stream through the points instead of making one call per pair
+
+  */
+
+  // sets out[i] = d(x, ys[i]) for the first n points in ys
+  public void distances(float[] x, float[][] ys, int n, float[] out) {
+    for (int i = 0; i < n; i++) {
+      out[i] = d(x, ys[i]);
+    }
+  }
+
+  // sets out[i] = cd(x, ys[i]) for the first n points in ys
+  public void cds(float[] x, float[][] ys, int n, float[] out) {
+    for (int i = 0; i < n; i++) {
+      out[i] = cd(x, ys[i]);
+    }
+  }
+
+  // sets out[i] = d(x, y_i) where y_0, ..., y_{count-1} are stored one after
+  // the other in block (so y_i starts at block[i*x.length])
+  public void distances(float[] x, float[] block, int count, float[] out) {
+    int dim = x.length;
+    for (int i = 0; i < count; i++) {
+      out[i] = d(x, Arrays.copyOfRange(block, i*dim, (i + 1)*dim));
+    }
+  }
+
+  // sets out[i] = cd(x, y_i) where the y_i are stored in block as above
+  public void cds(float[] x, float[] block, int count, float[] out) {
+    int dim = x.length;
+    for (int i = 0; i < count; i++) {
+      out[i] = cd(x, Arrays.copyOfRange(block, i*dim, (i + 1)*dim));
+    }
+  }
+
+  // sets out[i][j] = d(xs[i], ys[j]) for the first n points in xs and m in ys
+  public void distanceMatrix(float[][] xs, int n, float[][] ys, int m, float[][] out) {
+    for (int i = 0; i < n; i++) {
+      distances(xs[i], ys, m, out[i]);
+    }
+  }
+
 }
 
 // implementation of Lp-norm
 class LpNorm extends Metric {
 
-  private int p;
+  // value of p used to represent the L-infinity norm
+  public static final int INFINITY = Integer.MAX_VALUE;
+
+  // number of floats of ys kept in cache while computing a distance matrix
+  private static final int TILE_FLOATS = 8192;
 
-  private float noise;
+  protected int p;
+
+  protected float noise;
 
   LpNorm(int p, float noise) {
     this.p = p;
@@ -25,6 +88,31 @@ class LpNorm extends Metric {
     this.noise = 0;
   }
 
+  // returns the vectorized implementation of this norm if the jdk.incubator.vector
+  // module is available at runtime, and the scalar implementation otherwise
+  public static LpNorm fastest(int p, float noise) {
+    try {
+      Class<?> c = Class.forName("VectorLpNorm");
+      return (LpNorm)c.getDeclaredConstructor(int.class, float.class).newInstance(p, noise);
+    } catch (ReflectiveOperationException | LinkageError error) {
+      return new LpNorm(p, noise);
+    }
+  }
+
+  // the value of p
+  public int p() {
+    return p;
+  }
+
+  /*
+
+  NOTE: the specialised kernels for p = 1, 2 and infinity avoid Math.pow and sum
+  in double precision using independent accumulators, so they agree with the
+  generic kernel up to the rounding of the final cast to float (in practice the
+  results are bit-identical, and always within 1 ulp)
+
+  */
+
   public float d(float[] x, float[] y) {
 
     // ensure vectors have same dimension
@@ -32,13 +120,306 @@ class LpNorm extends Metric {
       return 0;
     }
 
+    switch (p) {
+      case 1:
+        return (float)l1(x, y, 0) + noise;
+      case 2:
+        return (float)Math.sqrt(l2Squared(x, y, 0)) + noise;
+      case INFINITY:
+        return lInf(x, y, 0) + noise;
+      default:
+        return dGeneric(x, y);
+    }
+  }
+
+  // the unrooted sum (or the maximum for p = infinity), without the noise
+  public float cd(float[] x, float[] y) {
+
+    // ensure vectors have same dimension
+    if (x.length != y.length) {
+      return 0;
+    }
+
+    return cdAt(x, y, 0);
+  }
+
+  public float cdToD(float c) {
+
+    switch (p) {
+      case 1:
+      case INFINITY:
+        return c + noise;
+      case 2:
+        return (float)Math.sqrt(c) + noise;
+      default:
+        return (float)Math.pow(c, 1.0/(double)p) + noise;
+    }
+  }
+
+  public void distances(float[] x, float[][] ys, int n, float[] out) {
+    cds(x, ys, 0, n, out, 0);
+    toD(out, 0, n);
+  }
+
+  public void cds(float[] x, float[][] ys, int n, float[] out) {
+    cds(x, ys, 0, n, out, 0);
+  }
+
+  public void distances(float[] x, float[] block, int count, float[] out) {
+    cds(x, block, count, out);
+    toD(out, 0, count);
+  }
+
+  public void cds(float[] x, float[] block, int count, float[] out) {
+
+    int dim = x.length;
+    int i = 0;
+
+    // four points at a time
+    for (; i + 3 < count; i += 4) {
+      cd4(x, block, i*dim, block, (i + 1)*dim, block, (i + 2)*dim, block, (i + 3)*dim, out, i);
+    }
+
+    for (; i < count; i++) {
+      out[i] = cdAt(x, block, i*dim);
+    }
+  }
+
+  public void distanceMatrix(float[][] xs, int n, float[][] ys, int m, float[][] out) {
+
+    if (n == 0 || m == 0) return;
+
+    // use the engine based on dot products for the L2 norm
+    if (p == 2 && sameDimension(xs, n, ys, m)) {
+      L2DistanceMatrix.compute(xs, n, ys, m, out, noise);
+      return;
+    }
+
+    tiledDistanceMatrix(xs, n, ys, m, out);
+  }
+
+  // computes the distance matrix by streaming tiles of ys through the kernels used by cds
+  protected void tiledDistanceMatrix(float[][] xs, int n, float[][] ys, int m, float[][] out) {
+
+    if (n == 0 || m == 0) return;
+
+    // number of points of ys in a tile
+    int tile = Math.max(4, TILE_FLOATS/Math.max(1, xs[0].length));
+
+    // keep a tile of ys in cache while streaming all of xs through it
+    for (int from = 0; from < m; from += tile) {
+      int to = Math.min(m, from + tile);
+      for (int i = 0; i < n; i++) {
+        cds(xs[i], ys, from, to, out[i], from);
+      }
+    }
+
+    for (int i = 0; i < n; i++) {
+      toD(out[i], 0, m);
+    }
+  }
+
+  // sets out[offset + j - from] = cd(x, ys[j]) for j in [from, to)
+  private void cds(float[] x, float[][] ys, int from, int to, float[] out, int offset) {
+
+    int dim = x.length;
+    int j = from;
+
+    // four points at a time
+    for (; j + 3 < to; j += 4) {
+
+      float[] y0 = ys[j], y1 = ys[j+1], y2 = ys[j+2], y3 = ys[j+3];
+
+      if (y0.length == dim && y1.length == dim && y2.length == dim && y3.length == dim) {
+        cd4(x, y0, 0, y1, 0, y2, 0, y3, 0, out, offset + j - from);
+      }
+      else {
+        for (int l = 0; l < 4; l++) {
+          out[offset + j + l - from] = cd(x, ys[j + l]);
+        }
+      }
+    }
+
+    for (; j < to; j++) {
+      out[offset + j - from] = cd(x, ys[j]);
+    }
+  }
+
+  // checks that the first n points of xs and m points of ys have the same dimension
+  protected static boolean sameDimension(float[][] xs, int n, float[][] ys, int m) {
+
+    int dim = xs[0].length;
+
+    for (int i = 0; i < n; i++) {
+      if (xs[i].length != dim) return false;
+    }
+
+    for (int j = 0; j < m; j++) {
+      if (ys[j].length != dim) return false;
+    }
+
+    return true;
+  }
+
+  // converts cd values to distances in place
+  private void toD(float[] out, int from, int to) {
+    for (int i = from; i < to; i++) {
+      out[i] = cdToD(out[i]);
+    }
+  }
+
+  // cd from x to the point stored in y starting at index o
+  protected float cdAt(float[] x, float[] y, int o) {
+
+    switch (p) {
+      case 1:
+        return (float)l1(x, y, o);
+      case 2:
+        return (float)l2Squared(x, y, o);
+      case INFINITY:
+        return lInf(x, y, o);
+      default:
+        return (float)sumGeneric(x, y, o);
+    }
+  }
+
+  // sets out[i], ..., out[i+3] to the cd from x to the four points stored in
+  // y0, ..., y3 starting at indices o0, ..., o3, reading each x[l] only once
+  protected void cd4(float[] x, float[] y0, int o0, float[] y1, int o1, float[] y2, int o2, float[] y3, int o3, float[] out, int i) {
+
+    int len = x.length;
+
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+    switch (p) {
+      case 1:
+        for (int l = 0; l < len; l++) {
+          float a = x[l];
+          s0 += Math.abs(a - y0[o0 + l]);
+          s1 += Math.abs(a - y1[o1 + l]);
+          s2 += Math.abs(a - y2[o2 + l]);
+          s3 += Math.abs(a - y3[o3 + l]);
+        }
+        break;
+      case 2:
+        for (int l = 0; l < len; l++) {
+          float a = x[l];
+          double b0 = a - y0[o0 + l];
+          double b1 = a - y1[o1 + l];
+          double b2 = a - y2[o2 + l];
+          double b3 = a - y3[o3 + l];
+          s0 += b0*b0;
+          s1 += b1*b1;
+          s2 += b2*b2;
+          s3 += b3*b3;
+        }
+        break;
+      case INFINITY:
+        float m0 = 0, m1 = 0, m2 = 0, m3 = 0;
+        for (int l = 0; l < len; l++) {
+          float a = x[l];
+          m0 = Math.max(m0, Math.abs(a - y0[o0 + l]));
+          m1 = Math.max(m1, Math.abs(a - y1[o1 + l]));
+          m2 = Math.max(m2, Math.abs(a - y2[o2 + l]));
+          m3 = Math.max(m3, Math.abs(a - y3[o3 + l]));
+        }
+        s0 = m0; s1 = m1; s2 = m2; s3 = m3;
+        break;
+      default:
+        s0 = sumGeneric(x, y0, o0);
+        s1 = sumGeneric(x, y1, o1);
+        s2 = sumGeneric(x, y2, o2);
+        s3 = sumGeneric(x, y3, o3);
+    }
+
+    out[i] = (float)s0;
+    out[i+1] = (float)s1;
+    out[i+2] = (float)s2;
+    out[i+3] = (float)s3;
+  }
+
+  // generic kernel for arbitrary p
+  float dGeneric(float[] x, float[] y) {
+
+    // ensure vectors have same dimension
+    if (x.length != y.length) {
+      return 0;
+    }
+
+    float d = (float)Math.pow(sumGeneric(x, y, 0), 1.0/(double)p);
+
+    return d + noise;
+  }
+
+  // sum of the p-th powers of the absolute differences
+  private double sumGeneric(float[] x, float[] y, int o) {
+
     double sum = 0;
     for (int i = 0; i < x.length; i++) {
-      sum += Math.pow(Math.abs(x[i] - y[i]), p);
+      sum += Math.pow(Math.abs(x[i] - y[o + i]), p);
     }
 
-    float d = (float)Math.pow(sum, 1.0/(double)p);
+    return sum;
+  }
 
-    return d + noise;
+  // sum of absolute differences
+  private static double l1(float[] x, float[] y, int o) {
+
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+    int len = x.length;
+    int i = 0;
+
+    for (; i + 3 < len; i += 4) {
+      s0 += Math.abs(x[i] - y[o+i]);
+      s1 += Math.abs(x[i+1] - y[o+i+1]);
+      s2 += Math.abs(x[i+2] - y[o+i+2]);
+      s3 += Math.abs(x[i+3] - y[o+i+3]);
+    }
+
+    for (; i < len; i++) {
+      s0 += Math.abs(x[i] - y[o+i]);
+    }
+
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  // sum of squared differences
+  private static double l2Squared(float[] x, float[] y, int o) {
+
+    double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+
+    int len = x.length;
+    int i = 0;
+
+    for (; i + 3 < len; i += 4) {
+      double a0 = x[i] - y[o+i];
+      double a1 = x[i+1] - y[o+i+1];
+      double a2 = x[i+2] - y[o+i+2];
+      double a3 = x[i+3] - y[o+i+3];
+      s0 += a0*a0;
+      s1 += a1*a1;
+      s2 += a2*a2;
+      s3 += a3*a3;
+    }
+
+    for (; i < len; i++) {
+      double a = x[i] - y[o+i];
+      s0 += a*a;
+    }
+
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  // largest absolute difference
+  private static float lInf(float[] x, float[] y, int o) {
+
+    float m = 0;
+
+    for (int i = 0; i < x.length; i++) {
+      m = Math.max(m, Math.abs(x[i] - y[o+i]));
+    }
+
+    return m;
   }
 }
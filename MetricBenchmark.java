@@ -0,0 +1,214 @@
+import java.util.*;
+
+/*
+
+microbenchmark comparing the generic (Math.pow) Lp-norm kernel with the scalar
+and vectorized specialised kernels, for each dimension it reports the time per
+distance evaluation, the speedup over the generic kernel and the largest
+relative error observed, followed by the time taken to compute the distance
+matrix of a coreset (as done by OnlineKMedian) one pair at a time, by
+streaming tiles of points through the vectorized kernels, and (for the L2
+norm) with the L2DistanceMatrix engine, which is what distanceMatrix uses
+
+usage: java --add-modules jdk.incubator.vector MetricBenchmark [p]
+
+*/
+
+public class MetricBenchmark {
+
+  // number of points in the benchmark set
+  private static int n = 1024;
+
+  // size of the coresets whose distance matrices we compute
+  private static int coresetSize = 1000;
+
+  // number of passes over all pairs (x, y_i) per measurement
+  private static int passes = 200;
+
+  public static void main(String[] args) {
+
+    // the norm to benchmark (use 0 for the L-infinity norm)
+    int p = 2;
+    if (args.length > 0) p = Integer.valueOf(args[0]);
+    if (p == 0) p = LpNorm.INFINITY;
+
+    int[] dimensions = { 2, 8, 16, 32, 64, 90, 128, 256, 512, 960 };
+
+    LpNorm generic = new LpNorm(p);
+    LpNorm scalar = new LpNorm(p);
+    LpNorm vector = LpNorm.fastest(p, 0);
+
+    if (vector.getClass() == LpNorm.class) {
+      System.out.println("jdk.incubator.vector not available, vector column uses the scalar kernels");
+    }
+
+    System.out.println("     d   generic(ns)    scalar(ns)    vector(ns)   scalar(x)   vector(x)   max rel err");
+
+    for (int d : dimensions) {
+
+      Random rng = new Random(d);
+
+      float[][] points = new float[n][d];
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j < d; j++) {
+          points[i][j] = rng.nextFloat()*2 - 1;
+        }
+      }
+
+      // largest relative error of the vector kernel against the generic one
+      float maxError = 0;
+      for (int i = 1; i < n; i++) {
+        float a = reference(generic, points[0], points[i]);
+        float b = vector.d(points[0], points[i]);
+        maxError = Math.max(maxError, Math.abs(a - b)/Math.max(a, Float.MIN_NORMAL));
+      }
+
+      // warm up all kernels before measuring
+      for (int r = 0; r < 5; r++) {
+        timeGeneric(generic, points);
+        time(scalar, points);
+        time(vector, points);
+      }
+
+      double tg = timeGeneric(generic, points);
+      double ts = time(scalar, points);
+      double tv = time(vector, points);
+
+      System.out.println(String.format("%6d  %12.2f  %12.2f  %12.2f  %10.2f  %10.2f  %12.3e", d, tg, ts, tv, tg/ts, tg/tv, maxError));
+    }
+
+    System.out.println();
+    System.out.println("distance matrix of " + coresetSize + " points");
+    System.out.println("     d   pairwise(ms)     tiled(ms)    engine(ms)    tiled(x)   engine(x)");
+
+    // evaluates the distance matrix one pair at a time
+    Metric pairwise = new Metric() {
+      public float d(float[] x, float[] y) {
+        return vector.d(x, y);
+      }
+    };
+
+    for (int d : dimensions) {
+
+      Random rng = new Random(d);
+
+      float[][] points = new float[coresetSize][d];
+      for (int i = 0; i < coresetSize; i++) {
+        for (int j = 0; j < d; j++) {
+          points[i][j] = rng.nextFloat()*2 - 1;
+        }
+      }
+
+      float[][] out = new float[coresetSize][coresetSize];
+
+      // warm up all versions before measuring
+      for (int r = 0; r < 3; r++) {
+        timeMatrix(pairwise, points, out);
+        timeTiled(vector, points, out);
+        if (p == 2) timeEngine(points, out);
+      }
+
+      double tp = timeMatrix(pairwise, points, out);
+      double tt = timeTiled(vector, points, out);
+
+      // the engine only computes L2 distances
+      if (p == 2) {
+        double te = timeEngine(points, out);
+        System.out.println(String.format("%6d  %12.2f  %12.2f  %12.2f  %10.2f  %10.2f", d, tp, tt, te, tp/tt, tp/te));
+      }
+      else {
+        System.out.println(String.format("%6d  %12.2f  %12.2f  %12s  %10.2f  %10s", d, tp, tt, "-", tp/tt, "-"));
+      }
+    }
+  }
+
+  // time (in milli seconds) to compute the distance matrix of points
+  private static double timeMatrix(Metric metric, float[][] points, float[][] out) {
+
+    long s = System.nanoTime();
+
+    metric.distanceMatrix(points, points.length, points, points.length, out);
+
+    long t = System.nanoTime() - s;
+    consume(out[1][0]);
+
+    return t/1e6;
+  }
+
+  // time (in milli seconds) to compute the distance matrix of points with the
+  // tiled kernels of metric
+  private static double timeTiled(LpNorm metric, float[][] points, float[][] out) {
+
+    long s = System.nanoTime();
+
+    metric.tiledDistanceMatrix(points, points.length, points, points.length, out);
+
+    long t = System.nanoTime() - s;
+    consume(out[1][0]);
+
+    return t/1e6;
+  }
+
+  // time (in milli seconds) to compute the L2 distance matrix of points with
+  // the L2DistanceMatrix engine
+  private static double timeEngine(float[][] points, float[][] out) {
+
+    long s = System.nanoTime();
+
+    L2DistanceMatrix.compute(points, points.length, points, points.length, out, 0);
+
+    long t = System.nanoTime() - s;
+    consume(out[1][0]);
+
+    return t/1e6;
+  }
+
+  // time per evaluation (in nano seconds) of the generic kernel
+  private static double timeGeneric(LpNorm metric, float[][] points) {
+
+    float sink = 0;
+    long s = System.nanoTime();
+
+    for (int r = 0; r < passes; r++) {
+      float[] x = points[r % n];
+      for (int i = 0; i < n; i++) {
+        sink += reference(metric, x, points[i]);
+      }
+    }
+
+    long t = System.nanoTime() - s;
+    consume(sink);
+
+    return (double)t/((double)passes*n);
+  }
+
+  // time per evaluation (in nano seconds) of d
+  private static double time(Metric metric, float[][] points) {
+
+    float sink = 0;
+    long s = System.nanoTime();
+
+    for (int r = 0; r < passes; r++) {
+      float[] x = points[r % n];
+      for (int i = 0; i < n; i++) {
+        sink += metric.d(x, points[i]);
+      }
+    }
+
+    long t = System.nanoTime() - s;
+    consume(sink);
+
+    return (double)t/((double)passes*n);
+  }
+
+  // the generic kernel (which cannot evaluate the L-infinity norm)
+  private static float reference(LpNorm metric, float[] x, float[] y) {
+    if (metric.p() == LpNorm.INFINITY) return metric.d(x, y);
+    return metric.dGeneric(x, y);
+  }
+
+  // prevents the JIT from eliminating the benchmark loops
+  private static void consume(float sink) {
+    if (sink == Float.MIN_VALUE) System.out.print("");
+  }
+}
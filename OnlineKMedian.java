@@ -157,6 +157,9 @@ public class OnlineKMedian {
       return solution;
     }
 
+    // distances from the latest median
+    float[] medianDist = new float[n];
+
     // implementation of online k-median algorithm
     while (found < k) {
 
@@ -170,8 +173,10 @@ public class OnlineKMedian {
       found++;
 
       // update distances from medians
+      metric.distances(pointsArr[i], pointsArr, n, medianDist);
+
       for (int j=0; j < n; j++) {
-        distFromMedians[j] = Math.min(distFromMedians[j], metric.d(pointsArr[j], pointsArr[i])); // removed *weightsArr[j]?
+        distFromMedians[j] = Math.min(distFromMedians[j], medianDist[j]); // removed *weightsArr[j]?
       }
     }
 
@@ -354,13 +359,16 @@ public class OnlineKMedian {
     sortedPointsArr = new int[n][n];
     sortedPointsDistArr = new float[n][n];
 
+    // compute all the pairwise distances
+    metric.distanceMatrix(pointsArr, n, pointsArr, n, sortedPointsDistArr);
+
     Pair[] sortingArr = new Pair[n];
 
     for (int i = 0; i < n; i++) {
 
       // place the indices of the points and their distances from i into an array
       for (int j = 0; j < n; j++) {
-        sortingArr[j] = new Pair(j, metric.d(pointsArr[i], pointsArr[j]));
+        sortingArr[j] = new Pair(j, sortedPointsDistArr[i][j]);
       }
 
       Arrays.sort(sortingArr);
@@ -0,0 +1,263 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+
+store for the points of a dynamic instance, the points are kept one after the
+other in a single float array and are addressed by dense slot ids, slots of
+deleted points are recycled through a free list
+
+while frees are deferred, the slots of deleted points are not recycled, so the
+points in an array returned by data() stay valid (for a reader on another
+thread) until the frees are released, even if the points are deleted
+
+*/
+
+class PointStore {
+
+  // dimension of the points (0 until the first point is added)
+  private int dim;
+
+  // point in slot s is stored in data[s*dim], ..., data[(s+1)*dim - 1]
+  private float[] data;
+
+  // the key and the weight of the point in each slot
+  private int[] slotKeys;
+  private float[] slotWeights;
+
+  // the slot of each key
+  private IntIntMap slots;
+
+  // stack of the free slots below slotCount
+  private int[] freeSlots;
+  private int freeCount;
+
+  // number of slots that have ever been used
+  private int slotCount;
+
+  // slots freed while frees are deferred
+  private boolean deferring;
+  private int[] deferredSlots;
+  private int deferredCount;
+
+  PointStore(int expectedSize) {
+    this.dim = 0;
+    this.data = new float[0];
+    this.slotKeys = new int[Math.max(1, expectedSize)];
+    this.slotWeights = new float[Math.max(1, expectedSize)];
+    this.slots = new IntIntMap(expectedSize);
+    this.freeSlots = new int[16];
+    this.freeCount = 0;
+    this.slotCount = 0;
+    this.deferredSlots = new int[16];
+    this.deferredCount = 0;
+  }
+
+  PointStore() {
+    this(16);
+  }
+
+  // adds a point with unit weight and returns its slot
+  public int put(int key, float[] point) {
+    return put(key, point, 1.0f);
+  }
+
+  // adds a point with the given weight and returns its slot (if key is present
+  // its point and weight are overwritten)
+  public int put(int key, float[] point, float weight) {
+
+    if (dim == 0) {
+      dim = point.length;
+      data = new float[slotKeys.length*dim];
+    }
+
+    if (point.length != dim) {
+      throw new IllegalArgumentException("expected a point of dimension " + dim + " but got " + point.length);
+    }
+
+    int slot = slots.get(key, -1);
+
+    if (slot < 0) {
+
+      // reuse a free slot if there is one
+      if (freeCount > 0) {
+        slot = freeSlots[--freeCount];
+      }
+      else {
+        slot = slotCount++;
+        ensureCapacity(slotCount);
+      }
+
+      slots.put(key, slot);
+      slotKeys[slot] = key;
+    }
+
+    System.arraycopy(point, 0, data, slot*dim, dim);
+    slotWeights[slot] = weight;
+
+    return slot;
+  }
+
+  // removes the point with this key and returns its slot (or -1 if it is not present)
+  public int remove(int key) {
+
+    int slot = slots.remove(key, -1);
+
+    if (slot >= 0) {
+      if (deferring) {
+        if (deferredCount == deferredSlots.length) {
+          deferredSlots = Arrays.copyOf(deferredSlots, 2*deferredSlots.length);
+        }
+        deferredSlots[deferredCount++] = slot;
+      }
+      else {
+        free(slot);
+      }
+    }
+
+    return slot;
+  }
+
+  // stop recycling the slots of deleted points until releaseFrees is called
+  public void deferFrees() {
+    deferring = true;
+  }
+
+  // recycle the slots of the points deleted since deferFrees was called
+  public void releaseFrees() {
+
+    deferring = false;
+
+    for (int i = 0; i < deferredCount; i++) {
+      free(deferredSlots[i]);
+    }
+
+    deferredCount = 0;
+  }
+
+  // the slot of key (or -1 if it is not present)
+  public int slot(int key) {
+    return slots.get(key, -1);
+  }
+
+  // the key of the point in slot
+  public int key(int slot) {
+    return slotKeys[slot];
+  }
+
+  // the weight of the point in slot
+  public float weight(int slot) {
+    return slotWeights[slot];
+  }
+
+  // copies the point in slot into out
+  public void get(int slot, float[] out) {
+    System.arraycopy(data, slot*dim, out, 0, dim);
+  }
+
+  // returns a copy of the point in slot
+  public float[] point(int slot) {
+    float[] point = new float[dim];
+    get(slot, point);
+    return point;
+  }
+
+  // the array holding the points (valid until the next call to put)
+  public float[] data() {
+    return data;
+  }
+
+  // the array holding the weights of the points by slot (valid until the next
+  // call to put)
+  public float[] weights() {
+    return slotWeights;
+  }
+
+  // the dimension of the points
+  public int dim() {
+    return dim;
+  }
+
+  // number of points in the store
+  public int size() {
+    return slots.size();
+  }
+
+  // the slots used so far are 0, ..., capacity() - 1
+  public int capacity() {
+    return slotCount;
+  }
+
+  // writes the store to a checkpoint (the slots whose frees are deferred are
+  // written as free slots)
+  public void write(CheckpointWriter out) throws IOException {
+
+    out.putInt(dim);
+    out.putInt(slotCount);
+    out.putFloats(data, slotCount*dim);
+    out.putInts(slotKeys, slotCount);
+    out.putFloats(slotWeights, slotCount);
+
+    slots.write(out);
+
+    out.putInt(freeCount + deferredCount);
+    for (int i = 0; i < freeCount; i++) {
+      out.putInt(freeSlots[i]);
+    }
+    for (int i = 0; i < deferredCount; i++) {
+      out.putInt(deferredSlots[i]);
+    }
+  }
+
+  // reads a store written by write
+  public static PointStore read(CheckpointReader in) throws IOException {
+
+    PointStore store = new PointStore(0);
+
+    store.dim = in.getInt();
+    store.slotCount = in.getInt();
+
+    int capacity = Math.max(1, store.slotCount);
+    store.data = in.getFloats(capacity*store.dim);
+    store.slotKeys = in.getInts(capacity);
+
+    // the points of a checkpoint older than version 2 have unit weight
+    if (in.version() >= 2) {
+      store.slotWeights = in.getFloats(capacity);
+    }
+    else {
+      store.slotWeights = new float[capacity];
+      Arrays.fill(store.slotWeights, 1.0f);
+    }
+
+    store.slots = IntIntMap.read(in);
+
+    store.freeCount = in.getInt();
+    store.freeSlots = new int[Math.max(16, store.freeCount)];
+    for (int i = 0; i < store.freeCount; i++) {
+      store.freeSlots[i] = in.getInt();
+    }
+
+    return store;
+  }
+
+  // pushes slot onto the stack of free slots
+  private void free(int slot) {
+    if (freeCount == freeSlots.length) {
+      freeSlots = Arrays.copyOf(freeSlots, 2*freeSlots.length);
+    }
+    freeSlots[freeCount++] = slot;
+  }
+
+  // grows the arrays to hold at least n slots
+  private void ensureCapacity(int n) {
+
+    if (n <= slotKeys.length) return;
+
+    int capacity = Math.max(n, 2*slotKeys.length);
+
+    slotKeys = Arrays.copyOf(slotKeys, capacity);
+    slotWeights = Arrays.copyOf(slotWeights, capacity);
+    data = Arrays.copyOf(data, capacity*dim);
+  }
+}
@@ -0,0 +1,261 @@
+import java.util.*;
+
+/*
+
+cache of the solution returned by the queries of a dynamic algorithm
+
+the solution is tagged with the version of the coreset it was computed from
+(a counter the algorithm increments whenever its coreset may have changed),
+a query on an unchanged coreset returns the cached solution, otherwise the
+coreset is clustered again, either from scratch with OnlineKMedian or, if the
+cached solution is recent enough, by refining its centers with the iterations
+of kmeans in KMeansPlusPlus (which is much cheaper)
+
+the queries of several threads are answered one at a time (each from the
+snapshot of the coreset it was given)
+
+refinements change the solutions returned, so they are disabled unless
+enabled with setMaxWarmStarts (every query on a changed coreset then clusters
+it from scratch, as without the cache)
+
+to bound the drift of the solution, at most maxWarmStarts refinements are made
+in a row before the coreset is clustered from scratch again, and a refinement
+which loses centers, or whose cost (per unit of weight of the coreset) exceeds
+by more than a factor 1 + slack either the cost of the last solution found
+from scratch or the cost of its centers on the current coreset, is discarded
+and the coreset is clustered from scratch instead
+
+*/
+
+public class QueryCache {
+
+  // parameters for clustering
+  private int k;
+  private Metric metric;
+
+  // number of refinements allowed in a row (0 disables them)
+  private int maxWarmStarts;
+
+  // the increase in cost tolerated by a refinement
+  private float slack = 0.05f;
+
+  // the cost per unit of weight of the last solution found from scratch, and
+  // the coordinates of its centers
+  private double fullCost;
+  private float[][] fullCenters;
+
+  // the cached solution, the version of the coreset it was computed from, and
+  // the coordinates of its centers
+  private TreeMap<Integer, Integer> solution;
+  private long version;
+  private float[][] centers;
+
+  // number of refinements since the coreset was last clustered from scratch
+  private int warmStartsInRow;
+
+  // statistics of the queries
+  private long queries;
+  private long hits;
+  private long warmStarts;
+  private long fullRuns;
+  private long rejected;
+
+  // time spent clustering from scratch and refining (in nano seconds)
+  private long fullNanos;
+  private long warmNanos;
+
+  QueryCache(int k, Metric metric, int maxWarmStarts) {
+    this.k = k;
+    this.metric = metric;
+    this.maxWarmStarts = maxWarmStarts;
+  }
+
+  QueryCache(int k, Metric metric) {
+    this(k, metric, 0);
+  }
+
+  // clusters the coreset, returning the cached solution if it was computed
+  // from the same version of the coreset
+  public synchronized TreeMap<Integer, Integer> cluster(CoresetSnapshot coreset) {
+
+    queries++;
+
+    if (solution != null && version == coreset.version()) {
+      hits++;
+      return solution();
+    }
+
+    float[][] points = coreset.points();
+    float[] weights = coreset.weights();
+    int[] keys = coreset.keys();
+
+    long s = System.nanoTime();
+
+    boolean refined = false;
+
+    if (centers != null && warmStartsInRow < maxWarmStarts && points.length > 0) {
+
+      int previousSize = centers.length;
+
+      // refine the previous centers
+      KMeansPlusPlus kmeanspp = new KMeansPlusPlus(k, metric);
+      solution = kmeanspp.cluster(points, weights, keys, centers);
+
+      setCenters(points, keys);
+
+      // the refinement must not lose centers (which happens when clusters
+      // become empty) nor increase the cost too much, compared to the last
+      // solution found from scratch both on the coreset it was found on and
+      // on the current coreset
+      if (centers.length >= previousSize) {
+        double baseline = Math.min(fullCost, cost(points, weights, fullCenters));
+        refined = cost(points, weights, centers) <= (1 + slack)*baseline;
+      }
+
+      if (refined) {
+        warmStartsInRow++;
+        warmStarts++;
+      }
+      else {
+        rejected++;
+      }
+
+      warmNanos += System.nanoTime() - s;
+    }
+
+    if (!refined) {
+
+      s = System.nanoTime();
+
+      // cluster from scratch
+      OnlineKMedian staticAlgo = new OnlineKMedian(k, metric);
+      solution = staticAlgo.cluster(points, weights, keys);
+
+      setCenters(points, keys);
+
+      fullCenters = centers;
+      fullCost = cost(points, weights, centers);
+
+      warmStartsInRow = 0;
+      fullRuns++;
+      fullNanos += System.nanoTime() - s;
+    }
+
+    this.version = coreset.version();
+
+    return solution();
+  }
+
+  // the cached solution (a copy, so the caller may modify it)
+  private TreeMap<Integer, Integer> solution() {
+    return new TreeMap<Integer, Integer>(solution);
+  }
+
+  // saves the coordinates of the centers of the solution, as the next coreset
+  // may not contain the centers themselves
+  private void setCenters(float[][] points, int[] keys) {
+
+    centers = new float[solution.size()][];
+
+    int j = 0;
+    for (int i = 0; i < keys.length && j < centers.length; i++) {
+      if (solution.containsKey(keys[i])) {
+        centers[j++] = points[i];
+      }
+    }
+
+    if (j < centers.length) {
+      centers = Arrays.copyOf(centers, j);
+    }
+  }
+
+  // the cost of the centers per unit of weight of the points
+  private double cost(float[][] points, float[] weights, float[][] centers) {
+
+    int m = centers.length;
+
+    if (m == 0) return 0;
+
+    double cost = 0;
+    double totalWeight = 0;
+
+    // distances from a point to each of the centers
+    float[] centerDist = new float[m];
+
+    for (int i = 0; i < points.length; i++) {
+
+      metric.distances(points[i], centers, m, centerDist);
+
+      float dist = Float.POSITIVE_INFINITY;
+      for (int j = 0; j < m; j++) {
+        dist = Math.min(dist, centerDist[j]);
+      }
+
+      cost += weights[i]*dist;
+      totalWeight += weights[i];
+    }
+
+    return totalWeight > 0 ? cost/totalWeight : 0;
+  }
+
+  // sets the number of refinements allowed in a row
+  public synchronized void setMaxWarmStarts(int maxWarmStarts) {
+    this.maxWarmStarts = maxWarmStarts;
+  }
+
+  // sets the increase in cost tolerated by a refinement
+  public synchronized void setSlack(float slack) {
+    this.slack = slack;
+  }
+
+  // the fraction of queries answered from the cache
+  public synchronized double hitRate() {
+    return queries == 0 ? 0 : (double)hits/queries;
+  }
+
+  // estimate of the time saved (in nano seconds) by the hits and refinements,
+  // compared to clustering from scratch on every query (the time spent on
+  // rejected refinements counts against it)
+  public synchronized long timeSaved() {
+
+    if (fullRuns == 0) return 0;
+
+    double fullAverage = (double)fullNanos/fullRuns;
+
+    return (long)(hits*fullAverage + warmStarts*fullAverage - warmNanos);
+  }
+
+  public synchronized long queries() {
+    return queries;
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long warmStarts() {
+    return warmStarts;
+  }
+
+  public synchronized long fullRuns() {
+    return fullRuns;
+  }
+
+  public synchronized long rejected() {
+    return rejected;
+  }
+
+  // time spent refining and clustering from scratch (in nano seconds)
+  public synchronized long warmNanos() {
+    return warmNanos;
+  }
+
+  public synchronized long fullNanos() {
+    return fullNanos;
+  }
+
+  // a one line summary of the statistics
+  public synchronized String report() {
+    return "queries " + queries + ", hits " + hits + " (" + String.format("%.1f", 100*hitRate()) + "%), warm starts " + warmStarts + " (" + rejected + " rejected), full runs " + fullRuns + ", time saved " + timeSaved()/1000000 + "ms";
+  }
+}
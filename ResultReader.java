@@ -0,0 +1,122 @@
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/*
+
+reads the result files written by ResultWriter and prints them as CSV, the
+columns of all the given files are printed side by side (shorter columns
+are padded with empty fields) and the descriptions of the files are printed
+to standard error
+
+usage: java ResultReader <file> [<file> ...] > results.csv
+
+*/
+
+public class ResultReader {
+
+  // the name of the column and the description of the experiment
+  private String column;
+  private String description;
+
+  private int type;
+
+  // the values of the column
+  private ByteBuffer values;
+
+  ResultReader(String path) throws IOException {
+
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+
+      ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+      if (file.remaining() < 20 || file.getInt() != ResultWriter.MAGIC) {
+        throw new IOException(path + " is not a result file");
+      }
+
+      int version = file.getInt();
+      if (version != ResultWriter.VERSION) {
+        throw new IOException(path + " has unsupported version " + version);
+      }
+
+      this.type = file.getInt();
+      this.column = readString(file);
+      this.description = readString(file);
+
+      this.values = file.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+  }
+
+  public String column() {
+    return column;
+  }
+
+  public String description() {
+    return description;
+  }
+
+  // the number of values in the column
+  public int size() {
+    return values.capacity()/(type == ResultWriter.LONG ? 8 : 4);
+  }
+
+  // the i-th value of the column as a string
+  public String value(int i) {
+    if (type == ResultWriter.LONG) return Long.toString(values.getLong(8*i));
+    return Float.toString(values.getFloat(4*i));
+  }
+
+  public static void main(String[] args) throws IOException {
+
+    if (args.length == 0) {
+      System.err.println("usage: java ResultReader <file> [<file> ...]");
+      return;
+    }
+
+    ResultReader[] readers = new ResultReader[args.length];
+
+    int rows = 0;
+    for (int j = 0; j < args.length; j++) {
+      readers[j] = new ResultReader(args[j]);
+      rows = Math.max(rows, readers[j].size());
+
+      System.err.println(args[j] + ": " + readers[j].description());
+    }
+
+    PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+
+    // the header row
+    out.print("index");
+    for (ResultReader reader : readers) {
+      out.print(",");
+      out.print(reader.column());
+    }
+    out.println();
+
+    for (int i = 0; i < rows; i++) {
+      out.print(i);
+      for (ResultReader reader : readers) {
+        out.print(",");
+        if (i < reader.size()) out.print(reader.value(i));
+      }
+      out.println();
+    }
+
+    out.flush();
+  }
+
+  // reads a UTF-8 string preceded by its length
+  private static String readString(ByteBuffer file) throws IOException {
+
+    int length = file.getInt();
+    if (length < 0 || length > file.remaining()) throw new IOException("corrupt result file header");
+
+    byte[] bytes = new byte[length];
+    file.get(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -33,7 +33,7 @@ public class RunHenzingerKale{
     int queryCount = Integer.valueOf(args[4]);
 
     // the metric to be used
-    Metric metric = new LpNorm(2, 1.0f/n);
+    Metric metric = LpNorm.fastest(2, 1.0f/n);
 
     // create update stream
     SlidingWindow updateStream = new SlidingWindow(n, windowLength, "../data/" + dataset, true);
@@ -0,0 +1,432 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+
+our dynamic algorithm spread over several cores
+
+the keys are hash partitioned over a number of independent instances of
+DynamicMP (the shards), each updated by its own thread which takes the updates
+from a bounded queue (so a caller that outpaces a shard blocks rather than
+queueing without bound), and drains the queue in batches applied through
+applyBatch
+
+the union of the coresets of the shards is a coreset of the whole set of
+points, so a query clusters the union of the latest snapshots of the shards
+once with the static algorithm, without waiting for the shards
+
+the updates are applied asynchronously, so a query made right after an update
+may not reflect it yet, flush waits until all the updates submitted so far
+have been applied
+
+*/
+
+public class ShardedDynamicMP extends DynamicAlgorithm {
+
+  // capacity of the queue of each shard
+  private static final int QUEUE_CAPACITY = 4096;
+
+  // most updates a shard applies in one batch
+  private static final int MAX_BATCH = 1024;
+
+  // parameters for clustering
+  private int k;
+  private float alpha;
+  private float beta;
+  private float epsilon;
+
+  // the shards and the threads updating them
+  private Shard[] shards;
+
+  // the solution of the last query
+  private QueryCache cache;
+
+  // constructer
+  public ShardedDynamicMP(int k, Metric metric, float alpha, float beta, float epsilon, int shardCount) {
+    this(k, metric, alpha, beta, epsilon, shardCount, new Random());
+  }
+
+  // constructer with a fixed seed (the layers constructed for a given sequence
+  // of updates are the same as long as the number of shards is)
+  public ShardedDynamicMP(int k, Metric metric, float alpha, float beta, float epsilon, int shardCount, long seed) {
+    this(k, metric, alpha, beta, epsilon, shardCount, new Random(seed));
+  }
+
+  private ShardedDynamicMP(int k, Metric metric, float alpha, float beta, float epsilon, int shardCount, Random rng) {
+    this(k, metric, alpha, beta, epsilon, newShards(k, metric, alpha, beta, epsilon, shardCount, rng));
+  }
+
+  // constructer from the instances of the shards (new or restored)
+  private ShardedDynamicMP(int k, Metric metric, float alpha, float beta, float epsilon, DynamicMP[] algorithms) {
+
+    this.k = k;
+    this.alpha = alpha;
+    this.beta = beta;
+    this.epsilon = epsilon;
+
+    this.shards = new Shard[algorithms.length];
+    for (int i = 0; i < algorithms.length; i++) {
+      this.shards[i] = new Shard(i, algorithms[i]);
+    }
+
+    this.cache = new QueryCache(k, metric);
+  }
+
+  private static DynamicMP[] newShards(int k, Metric metric, float alpha, float beta, float epsilon, int shardCount, Random rng) {
+
+    if (shardCount < 1) {
+      throw new IllegalArgumentException("the number of shards must be positive");
+    }
+
+    DynamicMP[] algorithms = new DynamicMP[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      algorithms[i] = new DynamicMP(k, metric, alpha, beta, epsilon, rng.nextLong());
+    }
+
+    return algorithms;
+  }
+
+  /*
+
+  a shard and the thread updating it
+
+  */
+
+  private static class Shard implements Runnable {
+
+    // an update (a deletion if the point is null)
+    private static class Update {
+
+      final int key;
+      final float[] point;
+      final float weight;
+
+      // whether the point is moved rather than inserted
+      final boolean move;
+
+      Update(int key, float[] point, float weight, boolean move) {
+        this.key = key;
+        this.point = point;
+        this.weight = weight;
+        this.move = move;
+      }
+    }
+
+    final DynamicMP algorithm;
+
+    final BlockingQueue<Update> queue = new ArrayBlockingQueue<Update>(QUEUE_CAPACITY);
+
+    // number of updates submitted to and applied by this shard
+    final AtomicLong submitted = new AtomicLong();
+    volatile long applied;
+
+    // number of reconstructions of the shard (read by other threads)
+    volatile long reconstructions;
+
+    // the error that stopped the thread (if any)
+    volatile Throwable failure;
+
+    final Thread thread;
+
+    Shard(int index, DynamicMP algorithm) {
+
+      this.algorithm = algorithm;
+
+      this.thread = new Thread(this, "DynamicMP shard " + index);
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+
+    void submit(int key, float[] point, float weight, boolean move) {
+
+      if (failure != null) {
+        throw new IllegalStateException("shard failed", failure);
+      }
+
+      submitted.incrementAndGet();
+
+      try {
+        queue.put(new Update(key, point, weight, move));
+      } catch (InterruptedException e) {
+        submitted.decrementAndGet();
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("interrupted while submitting an update", e);
+      }
+    }
+
+    public void run() {
+
+      ArrayList<Update> batch = new ArrayList<Update>(MAX_BATCH);
+      int[] keys = new int[MAX_BATCH];
+      float[][] points = new float[MAX_BATCH][];
+      float[] weights = new float[MAX_BATCH];
+
+      try {
+        while (true) {
+
+          // wait for an update, then take the ones queued behind it
+          batch.add(queue.take());
+          queue.drainTo(batch, MAX_BATCH - 1);
+
+          int size = batch.size();
+
+          // the insertions and deletions between two moves are applied as a batch
+          int pending = 0;
+          for (int i = 0; i < size; i++) {
+
+            Update update = batch.get(i);
+
+            if (update.move) {
+              apply(keys, points, weights, pending);
+              pending = 0;
+              algorithm.move(update.key, update.point);
+            }
+            else {
+              keys[pending] = update.key;
+              points[pending] = update.point;
+              weights[pending] = update.weight;
+              pending++;
+            }
+          }
+
+          apply(keys, points, weights, pending);
+
+          batch.clear();
+          Arrays.fill(points, 0, size, null);
+
+          reconstructions = algorithm.reconstructions();
+          applied += size;
+        }
+      } catch (InterruptedException e) {
+        // the shard was closed
+      } catch (Throwable e) {
+        failure = e;
+      }
+    }
+
+    // applies the first size updates of the arrays
+    private void apply(int[] keys, float[][] points, float[] weights, int size) {
+
+      if (size == 0) return;
+
+      if (size == 1) {
+        if (points[0] != null) algorithm.insert(keys[0], points[0], weights[0]);
+        else algorithm.delete(keys[0]);
+      }
+      else {
+        algorithm.applyBatch(Arrays.copyOf(keys, size), Arrays.copyOf(points, size), Arrays.copyOf(weights, size));
+      }
+    }
+  }
+
+  // the shard holding the point with the given key
+  private Shard shard(int key) {
+
+    // spread the bits of the key, as keys are often consecutive
+    int h = key * 0x9E3779B9;
+    h ^= h >>> 16;
+
+    return shards[(int)((h & 0xFFFFFFFFL) % shards.length)];
+  }
+
+  // insert a point (which is copied, as the shard applies it later)
+  public void insert(int key, float[] point) {
+    shard(key).submit(key, point.clone(), 1.0f, false);
+  }
+
+  // insert a point with the given weight
+  public void insert(int key, float[] point, float weight) {
+    checkWeight(weight);
+    shard(key).submit(key, point.clone(), weight, false);
+  }
+
+  // delete a point
+  public void delete(int key) {
+    shard(key).submit(key, null, 0, false);
+  }
+
+  // move a point (its shard only depends on its key)
+  public void move(int key, float[] point) {
+    shard(key).submit(key, point.clone(), 0, true);
+  }
+
+  public void applyBatch(int[] keys, float[][] points, float[] weights) {
+
+    if (weights != null) {
+      for (int i = 0; i < keys.length; i++) {
+        if (points[i] != null) checkWeight(weights[i]);
+      }
+    }
+
+    for (int i = 0; i < keys.length; i++) {
+      if (points[i] == null) shard(keys[i]).submit(keys[i], null, 0, false);
+      else shard(keys[i]).submit(keys[i], points[i].clone(), weights == null ? 1.0f : weights[i], false);
+    }
+  }
+
+  // waits until every update submitted so far has been applied
+  public void flush() {
+
+    for (Shard shard : shards) {
+
+      long target = shard.submitted.get();
+
+      while (shard.applied < target) {
+
+        if (shard.failure != null) {
+          throw new IllegalStateException("shard failed", shard.failure);
+        }
+
+        LockSupport.parkNanos(10000);
+      }
+    }
+  }
+
+  // applies the updates still queued and stops the threads of the shards
+  public void close() {
+
+    flush();
+
+    for (Shard shard : shards) {
+      shard.thread.interrupt();
+    }
+  }
+
+  /*
+
+  checkpoints: the updates submitted so far are applied first, then the
+  parameters and each shard (in the format of a checkpoint of DynamicMP) are
+  written one after the other to the same file
+
+  the keys are assigned to the shards by their hash alone, so a restored
+  instance has the same number of shards and each shard gets the keys it held,
+  no update may be submitted while the checkpoint is written
+
+  */
+
+  public void checkpoint(String path) throws IOException {
+
+    flush();
+
+    try (CheckpointWriter out = new CheckpointWriter(path, CheckpointWriter.SHARDED_DYNAMIC_MP)) {
+
+      out.putInt(k);
+      out.putFloat(alpha);
+      out.putFloat(beta);
+      out.putFloat(epsilon);
+      out.putInt(shards.length);
+
+      for (Shard shard : shards) {
+        shard.algorithm.write(out);
+      }
+    }
+  }
+
+  // restores an instance from a checkpoint, the metric must be the one the
+  // instance used
+  public static ShardedDynamicMP restore(String path, Metric metric) throws IOException {
+    return restore(path, metric, new Random());
+  }
+
+  // restores an instance from a checkpoint, sampling with a fixed seed from then on
+  public static ShardedDynamicMP restore(String path, Metric metric, long seed) throws IOException {
+    return restore(path, metric, new Random(seed));
+  }
+
+  private static ShardedDynamicMP restore(String path, Metric metric, Random rng) throws IOException {
+
+    try (CheckpointReader in = new CheckpointReader(path, CheckpointWriter.SHARDED_DYNAMIC_MP)) {
+
+      int k = in.getInt();
+      float alpha = in.getFloat();
+      float beta = in.getFloat();
+      float epsilon = in.getFloat();
+
+      DynamicMP[] algorithms = new DynamicMP[in.getInt()];
+      for (int i = 0; i < algorithms.length; i++) {
+        algorithms[i] = DynamicMP.read(in, metric, new Random(rng.nextLong()));
+      }
+
+      return new ShardedDynamicMP(k, metric, alpha, beta, epsilon, algorithms);
+    }
+  }
+
+  // the union of the latest snapshots of the coresets of the shards, whose
+  // version is the sum of theirs (so it increases whenever one of them does)
+  public CoresetSnapshot coreset() {
+
+    CoresetSnapshot[] parts = new CoresetSnapshot[shards.length];
+
+    long version = 0;
+    int size = 0;
+
+    for (int i = 0; i < shards.length; i++) {
+      parts[i] = shards[i].algorithm.coreset();
+      version += parts[i].version();
+      size += parts[i].size();
+    }
+
+    // as the versions of the shards only increase, the last union is still
+    // current if its version is the sum of theirs
+    CoresetSnapshot last = snapshot.get();
+    if (last.version() == version) {
+      return last;
+    }
+
+    float[][] points = new float[size][];
+    float[] weights = new float[size];
+    int[] keys = new int[size];
+
+    int l = 0;
+    for (CoresetSnapshot part : parts) {
+      System.arraycopy(part.points(), 0, points, l, part.size());
+      System.arraycopy(part.weights(), 0, weights, l, part.size());
+      System.arraycopy(part.keys(), 0, keys, l, part.size());
+      l += part.size();
+    }
+
+    CoresetSnapshot union = new CoresetSnapshot(version, points, weights, keys);
+    snapshot.set(union);
+
+    return union;
+  }
+
+  // clusters the union of the coresets of the shards (or returns the cached
+  // solution, if none of them has changed since the last query)
+  public TreeMap<Integer, Integer> cluster() {
+    return cache.cluster(coreset());
+  }
+
+  // the cache of the solutions returned by cluster
+  public QueryCache queryCache() {
+    return cache;
+  }
+
+  // the number of shards
+  public int shards() {
+    return shards.length;
+  }
+
+  // the layers constructed by all the shards
+  public long reconstructions() {
+
+    long total = 0;
+    for (Shard shard : shards) {
+      total += shard.reconstructions;
+    }
+
+    return total;
+  }
+
+  public String parameters() {
+    return "k=" + k + " phi=" + alpha + " beta=" + beta + " epsilon=" + epsilon + " shards=" + shards.length;
+  }
+
+  public String name() {
+    return String.valueOf(k) + "_" + String.valueOf((int)alpha) + "_BCLP" + shards.length;
+  }
+}
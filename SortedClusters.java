@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+
+the clusters of a layer of DynamicMP, each sorted by increasing distance of its
+points from its center
+
+since the clusters only shrink between two constructions of the layer, each
+cluster is a range of a single array sorted once, whose entries pack the bits
+of the distance (which is non-negative, so its bits order like the distances)
+above the slot of the point, deleting a point marks its entry as dead and
+a cursor for each cluster skips the dead entries at the front, so finding the
+closest live point allocates nothing and takes amortised constant time
+
+unlike a TreeMap keyed by distance, points at equal distances from the center
+are all kept (ordered by slot)
+
+*/
+
+class SortedClusters {
+
+  // the entries of cluster c are at positions start[c], ..., start[c+1] - 1
+  private long[] entries;
+  private int[] start;
+
+  // the first position of cluster c that may hold a live point
+  private int[] cursor;
+
+  // the number of live points in each cluster and their total weight
+  private int[] size;
+  private float[] weight;
+
+  // bitset marking the positions of deleted points
+  private long[] dead;
+
+  // the clusters of the points points[i] with dist[i] <= nu, where points[i]
+  // belongs to cluster assignment[i] in 0, ..., m - 1 and the point in slot s
+  // has weight weights[s]
+  SortedClusters(int m, int[] points, int[] assignment, float[] dist, float nu, float[] weights) {
+
+    int n = points.length;
+
+    this.start = new int[m + 1];
+    this.cursor = new int[m];
+    this.size = new int[m];
+    this.weight = new float[m];
+
+    // count the points in each cluster
+    for (int i = 0; i < n; i++) {
+      if (dist[i] <= nu) {
+        size[assignment[i]]++;
+        weight[assignment[i]] += weights[points[i]];
+      }
+    }
+
+    for (int c = 0; c < m; c++) {
+      start[c + 1] = start[c] + size[c];
+      cursor[c] = start[c];
+    }
+
+    // place the entries in the ranges of their clusters and sort each range
+    this.entries = new long[start[m]];
+
+    int[] next = Arrays.copyOf(start, m);
+    for (int i = 0; i < n; i++) {
+      if (dist[i] <= nu) {
+        entries[next[assignment[i]]++] = ((long)Float.floatToRawIntBits(dist[i]) << 32) | points[i];
+      }
+    }
+
+    for (int c = 0; c < m; c++) {
+      Arrays.sort(entries, start[c], start[c + 1]);
+    }
+
+    this.dead = new long[(entries.length + 63) >>> 6];
+  }
+
+  private SortedClusters() {
+  }
+
+  // the number of clustered points (live or not) and the slot of the point at
+  // position e, the positions of each cluster are sorted by distance
+  public int entryCount() {
+    return entries.length;
+  }
+
+  public int slotAt(int e) {
+    return (int)entries[e];
+  }
+
+  // the distance from its center of the point at position e
+  public float distanceAt(int e) {
+    return Float.intBitsToFloat((int)(entries[e] >>> 32));
+  }
+
+  // the number of live points in cluster c
+  public int size(int c) {
+    return size[c];
+  }
+
+  // the total weight of the live points in cluster c
+  public float weight(int c) {
+    return weight[c];
+  }
+
+  public boolean isEmpty(int c) {
+    return size[c] == 0;
+  }
+
+  // deletes the point at position e of cluster c, whose weight is w
+  public void remove(int c, int e, float w) {
+
+    if ((dead[e >>> 6] & (1L << e)) != 0) return;
+
+    dead[e >>> 6] |= 1L << e;
+    size[c]--;
+    weight[c] -= w;
+  }
+
+  // writes the clusters to a checkpoint
+  public void write(CheckpointWriter out) throws IOException {
+    out.putLongs(entries);
+    out.putInts(start);
+    out.putInts(cursor);
+    out.putInts(size);
+    out.putFloats(weight);
+    out.putLongs(dead);
+  }
+
+  // reads clusters written by write
+  public static SortedClusters read(CheckpointReader in) throws IOException {
+
+    SortedClusters clusters = new SortedClusters();
+
+    clusters.entries = in.getLongs();
+    clusters.start = in.getInts();
+    clusters.cursor = in.getInts();
+    clusters.size = in.getInts();
+
+    // the points of a checkpoint older than version 2 have unit weight
+    if (in.version() >= 2) {
+      clusters.weight = in.getFloats();
+    }
+    else {
+      clusters.weight = new float[clusters.size.length];
+      for (int c = 0; c < clusters.size.length; c++) {
+        clusters.weight[c] = clusters.size[c];
+      }
+    }
+
+    clusters.dead = in.getLongs();
+
+    return clusters;
+  }
+
+  // the slot of the live point of cluster c closest to its center (the
+  // cluster must not be empty)
+  public int closest(int c) {
+
+    int e = cursor[c];
+    while ((dead[e >>> 6] & (1L << e)) != 0) {
+      e++;
+    }
+
+    cursor[c] = e;
+
+    return slotAt(e);
+  }
+}
@@ -48,7 +48,7 @@ public class Test {
     int queryCount = 100;
 
     // the metric to be used
-    Metric metric = new LpNorm(2, 1.0f/n);
+    Metric metric = LpNorm.fastest(2, 1.0f/n);
 
     // create update stream
     SlidingWindow updateStream = new SlidingWindow(n, windowLength, "../data/" + dataset, true);
@@ -92,7 +92,7 @@ public class Test {
   }
 
   // run tests on many algorithmss
-  public static void runTests(SlidingWindow updateStream, DynamicAlgorithm[] dynamicAlgorithms, Metric metric, String dataset, int queryCount, String dir) throws IOException {
+  public static void runTests(UpdateStreamGenerator updateStream, DynamicAlgorithm[] dynamicAlgorithms, Metric metric, String dataset, int queryCount, String dir) throws IOException {
 
     // query frequency
     int queryFrequency = (int)(updateStream.streamLength()/queryCount);
@@ -109,18 +109,54 @@ public class Test {
     // measures the costs
     float[] costs = new float[l];
 
+    // latency histograms of insertions and deletions (which did not trigger a
+    // reconstruction), of updates which triggered a reconstruction, of all
+    // updates and of queries
+    LatencyHistogram[] insertHistograms = new LatencyHistogram[l];
+    LatencyHistogram[] deleteHistograms = new LatencyHistogram[l];
+    LatencyHistogram[] reconHistograms = new LatencyHistogram[l];
+    LatencyHistogram[] updateHistograms = new LatencyHistogram[l];
+    LatencyHistogram[] queryHistograms = new LatencyHistogram[l];
+
+    // latency histograms of the updates since the last query
+    LatencyHistogram[] intervalHistograms = new LatencyHistogram[l];
+
+    // number of reconstructions since the last query
+    long[] intervalRecons = new long[l];
+
+    // the first update of the current interval
+    int intervalStart = 0;
+
+    for (int j = 0; j < l; j++) {
+      insertHistograms[j] = new LatencyHistogram();
+      deleteHistograms[j] = new LatencyHistogram();
+      reconHistograms[j] = new LatencyHistogram();
+      updateHistograms[j] = new LatencyHistogram();
+      queryHistograms[j] = new LatencyHistogram();
+      intervalHistograms[j] = new LatencyHistogram();
+    }
+
     // maintain the current instance in this BBT
     TreeMap<Integer, float[]> activePoints = new TreeMap<Integer, float[]>();
 
-    // create output streams to write to files
-    DataOutputStream[] updateTimeWriters = new DataOutputStream[l];
-    DataOutputStream[] queryTimeWriters = new DataOutputStream[l];
-    DataOutputStream[] costWriters = new DataOutputStream[l];
+    // create result writers to write to files (in the background)
+    ResultWriter[] updateTimeWriters = new ResultWriter[l];
+    ResultWriter[] queryTimeWriters = new ResultWriter[l];
+    ResultWriter[] costWriters = new ResultWriter[l];
+    PrintWriter[] histogramLogWriters = new PrintWriter[l];
 
     for (int i = 0; i < l; i++) {
-      updateTimeWriters[i] = new DataOutputStream(new FileOutputStream(dir + dataset + "_" + dynamicAlgorithms[i].name() + "_updatetime"));
-      queryTimeWriters[i] = new DataOutputStream(new FileOutputStream(dir + dataset + "_" + dynamicAlgorithms[i].name() + "_querytime"));
-      costWriters[i] = new DataOutputStream(new FileOutputStream(dir + dataset + "_" + dynamicAlgorithms[i].name() + "_cost"));
+
+      // describes the experiment in the header of each file
+      String description = "algorithm=" + dynamicAlgorithms[i].name() + " " + dynamicAlgorithms[i].parameters() + " dataset=" + dataset + " updates=" + updateStream.streamLength() + " queries=" + queryCount;
+
+      updateTimeWriters[i] = new ResultWriter(dir + dataset + "_" + dynamicAlgorithms[i].name() + "_updatetime", ResultWriter.LONG, "updatetime", description);
+      queryTimeWriters[i] = new ResultWriter(dir + dataset + "_" + dynamicAlgorithms[i].name() + "_querytime", ResultWriter.LONG, "querytime", description);
+      costWriters[i] = new ResultWriter(dir + dataset + "_" + dynamicAlgorithms[i].name() + "_cost", ResultWriter.FLOAT, "cost", description);
+      histogramLogWriters[i] = new PrintWriter(new BufferedWriter(new FileWriter(dir + dataset + "_" + dynamicAlgorithms[i].name() + "_updatetime_histlog")));
+
+      histogramLogWriters[i].println("# update latencies (in nano seconds) between consecutive queries");
+      histogramLogWriters[i].println("# first last count reconstructions p50 p99 p99.9 max buckets(value:count)");
     }
 
     // handle the update stream
@@ -135,6 +171,8 @@ public class Test {
       // handle and time the update for each one of the algorithms
       for (int j = 0; j < l; j++) {
 
+        long recons = dynamicAlgorithms[j].reconstructions();
+
         long s = System.nanoTime();
 
         if (updateStream.updateType(i))
@@ -142,7 +180,22 @@ public class Test {
         if (!updateStream.updateType(i))
           dynamicAlgorithms[j].delete(updateStream.key(i));
 
-        updateTimes[j] += System.nanoTime() - s;
+        long t = System.nanoTime() - s;
+
+        updateTimes[j] += t;
+
+        // record the latency of the update
+        if (dynamicAlgorithms[j].reconstructions() != recons) {
+          reconHistograms[j].record(t);
+          intervalRecons[j]++;
+        } else if (updateStream.updateType(i)) {
+          insertHistograms[j].record(t);
+        } else {
+          deleteHistograms[j].record(t);
+        }
+
+        updateHistograms[j].record(t);
+        intervalHistograms[j].record(t);
       }
 
       // perform query every queryFrequency updates (or on the last one)
@@ -155,7 +208,10 @@ public class Test {
           // cluster and find the solution
           TreeMap<Integer, Integer> solution = dynamicAlgorithms[j].cluster();
 
-          queryTimes[j] += System.nanoTime() - s;
+          long t = System.nanoTime() - s;
+
+          queryTimes[j] += t;
+          queryHistograms[j].record(t);
 
           // find the cost
           costs[j] = cost(activePoints, solution, metric);
@@ -164,14 +220,23 @@ public class Test {
 
       // write to files
       for (int j = 0; j < l; j++) {
-        updateTimeWriters[j].writeChars(Long.toString(updateTimes[j]) + "#");
+        updateTimeWriters[j].writeLong(updateTimes[j]);
       }
 
       if (i % queryFrequency == 0 || i == updateStream.streamLength() - 1) {
         for (int j = 0; j < l; j++) {
-          queryTimeWriters[j].writeChars(Long.toString(queryTimes[j]) + "#");
-          costWriters[j].writeChars(Float.toString(costs[j]) + "#");
+          queryTimeWriters[j].writeLong(queryTimes[j]);
+          costWriters[j].writeFloat(costs[j]);
         }
+
+        // close the current interval of the histogram log
+        for (int j = 0; j < l; j++) {
+          writeInterval(histogramLogWriters[j], intervalHistograms[j], intervalStart, i, intervalRecons[j]);
+          intervalHistograms[j].reset();
+          intervalRecons[j] = 0;
+        }
+
+        intervalStart = i + 1;
       }
 
       // print
@@ -188,7 +253,43 @@ public class Test {
       updateTimeWriters[i].close();
       queryTimeWriters[i].close();
       costWriters[i].close();
+      histogramLogWriters[i].close();
     }
+
+    // write the percentiles of the latencies
+    for (int i = 0; i < l; i++) {
+
+      PrintWriter percentileWriter = new PrintWriter(new BufferedWriter(new FileWriter(dir + dataset + "_" + dynamicAlgorithms[i].name() + "_updatetime_percentiles")));
+
+      percentileWriter.println("# latencies (in nano seconds) of " + dynamicAlgorithms[i].name() + " on " + dataset);
+      LatencyHistogram.writePercentilesHeader(percentileWriter);
+
+      insertHistograms[i].writePercentiles(percentileWriter, "insert");
+      deleteHistograms[i].writePercentiles(percentileWriter, "delete");
+      reconHistograms[i].writePercentiles(percentileWriter, "reconstruction");
+      updateHistograms[i].writePercentiles(percentileWriter, "update");
+      queryHistograms[i].writePercentiles(percentileWriter, "query");
+
+      percentileWriter.close();
+
+      System.out.println(dynamicAlgorithms[i].name() + ": update p99 " + updateHistograms[i].valueAtPercentile(99) + "ns, p99.9 " + updateHistograms[i].valueAtPercentile(99.9) + "ns, max " + updateHistograms[i].max() + "ns");
+
+      // report how often the queries were answered from the cache
+      QueryCache cache = dynamicAlgorithms[i].queryCache();
+      if (cache != null) {
+        System.out.println(dynamicAlgorithms[i].name() + ": query cache " + cache.report());
+      }
+    }
+  }
+
+  // write one line of the histogram log for the updates first, ..., last
+  private static void writeInterval(PrintWriter out, LatencyHistogram histogram, int first, int last, long recons) {
+
+    out.print(first + " " + last + " " + histogram.count() + " " + recons);
+    out.print(" " + histogram.valueAtPercentile(50) + " " + histogram.valueAtPercentile(99) + " " + histogram.valueAtPercentile(99.9) + " " + histogram.max() + " ");
+
+    histogram.writeBuckets(out);
+    out.println();
   }
 
   // run the complete tests
@@ -239,11 +340,11 @@ public class Test {
 
       for (int j = 0; j < solutionArr.length; j++) {
 
-        float d = metric.d(points.get(pointsArr[i]), points.get(solutionArr[j]));
+        float d = metric.cd(points.get(pointsArr[i]), points.get(solutionArr[j]));
         if (d <= dist) dist = d;
       }
 
-      cost += dist;
+      cost += metric.cdToD(dist);
     }
 
     return cost;
@@ -0,0 +1,446 @@
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+
+parallel parser for datasets in the text format described in the README (a
+line containing n and d, followed by one line per point), the file is split
+into byte ranges aligned on newlines and each range is parsed by its own
+fork-join task
+
+NOTE: numbers whose significand fits in 24 bits and whose decimal exponent is
+at most 10 in absolute value (e.g. 0.12345 or -1234.5) are parsed exactly as
+by Float.parseFloat, other numbers of up to 15 significant digits are rounded
+via double precision and may differ from Float.parseFloat by 1 ulp, anything
+else (e.g. NaN or very long numbers) is passed to Float.parseFloat
+
+*/
+
+class TextDatasetParser {
+
+  // powers of ten that are exact in float and double precision
+  private static final float[] FLOAT_POW10 = { 1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f };
+  private static final double[] DOUBLE_POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  // target size of the byte range parsed by one task
+  private static final long CHUNK_BYTES = 8L << 20;
+
+  // the file
+  private String path;
+
+  // number of points and their dimension
+  private int n;
+  private int d;
+
+  // position of the first byte after the header line
+  private long dataStart;
+
+  // statistics of the last call to parse
+  private long parsedBytes;
+  private long parseNanos;
+
+  TextDatasetParser(String path) throws IOException {
+
+    this.path = path;
+
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+
+      // read the header line
+      ByteBuffer header = ByteBuffer.allocate(256);
+      channel.read(header, 0);
+
+      int end = 0;
+      while (end < header.position() && header.get(end) != '\n') end++;
+
+      StringTokenizer tokens = new StringTokenizer(new String(header.array(), 0, end));
+
+      this.n = Integer.parseInt(tokens.nextToken());
+      this.d = Integer.parseInt(tokens.nextToken());
+      this.dataStart = Math.min(end + 1, channel.size());
+    }
+  }
+
+  // the number of points
+  public int n() {
+    return n;
+  }
+
+  // the dimension of the points
+  public int d() {
+    return d;
+  }
+
+  // parses points offset, ..., offset + data.length - 1 into data
+  public void parse(int offset, float[][] data) throws IOException {
+
+    long s = System.nanoTime();
+
+    try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+
+      long size = channel.size();
+
+      // split the data into byte ranges that start at the beginning of a line
+      int parallelism = ForkJoinPool.getCommonPoolParallelism();
+      int chunkCount = (int)Math.max(1, Math.min((size - dataStart)/CHUNK_BYTES + 1, 64L*parallelism));
+      chunkCount = (int)Math.max(chunkCount, (size - dataStart)/(Integer.MAX_VALUE/2) + 1);
+
+      long[] bounds = new long[chunkCount + 1];
+      bounds[0] = dataStart;
+      bounds[chunkCount] = size;
+
+      for (int c = 1; c < chunkCount; c++) {
+        bounds[c] = Math.max(bounds[c-1], lineStart(channel, dataStart + c*((size - dataStart)/chunkCount), size));
+      }
+
+      // count the lines in each range
+      Chunk[] chunks = new Chunk[chunkCount];
+      for (int c = 0; c < chunkCount; c++) {
+        chunks[c] = new Chunk(channel, bounds[c], bounds[c+1], data, offset);
+      }
+
+      ForkJoinPool.commonPool().invoke(new Tasks(chunks));
+
+      // find the index of the first point in each range
+      int first = 0;
+      for (Chunk chunk : chunks) {
+        chunk.first = first;
+        first += chunk.lines;
+        chunk.countOnly = false;
+      }
+
+      if (first < offset + data.length) {
+        throw new EOFException(path + " contains " + first + " points but " + (offset + data.length) + " are needed");
+      }
+
+      // parse the points
+      ForkJoinPool.commonPool().invoke(new Tasks(chunks));
+
+      parsedBytes = size - dataStart;
+    }
+
+    parseNanos = System.nanoTime() - s;
+  }
+
+  // the throughput of the last call to parse in MB/s
+  public double throughput() {
+    return (parsedBytes/1e6)/(parseNanos/1e9);
+  }
+
+  // prints the throughput of the last call to parse
+  public void printThroughput() {
+    System.out.println(String.format("Parsed %.1f MB in %.2f s (%.1f MB/s using %d threads)", parsedBytes/1e6, parseNanos/1e9, throughput(), ForkJoinPool.getCommonPoolParallelism()));
+  }
+
+  // returns the position after the first newline at or after pos - 1
+  private static long lineStart(FileChannel channel, long pos, long size) throws IOException {
+
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+    pos = Math.max(0, pos - 1);
+
+    while (pos < size) {
+
+      buffer.clear();
+      int read = channel.read(buffer, pos);
+      if (read <= 0) break;
+
+      for (int i = 0; i < read; i++) {
+        if (buffer.get(i) == '\n') return pos + i + 1;
+      }
+
+      pos += read;
+    }
+
+    return size;
+  }
+
+  // runs the tasks of all chunks
+  private static class Tasks extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private Chunk[] chunks;
+
+    Tasks(Chunk[] chunks) {
+      this.chunks = chunks;
+    }
+
+    protected void compute() {
+      invokeAll(chunks);
+      for (Chunk chunk : chunks) {
+        chunk.reinitialize();
+      }
+    }
+  }
+
+  // task that counts or parses the lines in one byte range
+  private class Chunk extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private FileChannel channel;
+
+    // the byte range [start, end)
+    private long start;
+    private long end;
+
+    // where to store the points
+    private float[][] data;
+    private int offset;
+
+    // whether this task only counts the lines
+    boolean countOnly = true;
+
+    // number of lines in this range and the index of the first one
+    int lines;
+    int first;
+
+    // the range being parsed and the current position in it
+    private ByteBuffer buffer;
+    private int pos;
+
+    // the value of the last number parsed
+    private float value;
+
+    Chunk(FileChannel channel, long start, long end, float[][] data, int offset) {
+      this.channel = channel;
+      this.start = start;
+      this.end = end;
+      this.data = data;
+      this.offset = offset;
+    }
+
+    protected void compute() {
+
+      if (start >= end) return;
+
+      // skip ranges without any of the requested points
+      if (!countOnly && (first + lines <= offset || first >= offset + data.length)) return;
+
+      try {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      } catch(IOException error) {
+        throw new UncheckedIOException(error);
+      }
+
+      if (countOnly) {
+        countLines();
+      }
+      else {
+        parseLines();
+      }
+
+      buffer = null;
+    }
+
+    // counts the lines containing at least one non blank character
+    private void countLines() {
+
+      int limit = buffer.limit();
+      boolean blank = true;
+
+      lines = 0;
+
+      for (int i = 0; i < limit; i++) {
+        byte b = buffer.get(i);
+        if (b == '\n') {
+          if (!blank) lines++;
+          blank = true;
+        }
+        else if (b != ' ' && b != '\t' && b != '\r') {
+          blank = false;
+        }
+      }
+
+      if (!blank) lines++;
+    }
+
+    // parses the requested points in this range
+    private void parseLines() {
+
+      int limit = buffer.limit();
+      int line = first;
+
+      pos = 0;
+
+      while (pos < limit && line < offset + data.length) {
+
+        skipBlanks(limit);
+
+        // skip empty lines
+        if (pos < limit && buffer.get(pos) == '\n') {
+          pos++;
+          continue;
+        }
+
+        if (pos >= limit) break;
+
+        if (line < offset) {
+          skipLine(limit);
+        }
+        else {
+
+          float[] point = data[line - offset];
+
+          for (int j = 0; j < d; j++) {
+
+            skipBlanks(limit);
+
+            if (pos >= limit || buffer.get(pos) == '\n') {
+              throw new IllegalArgumentException("point " + line + " of " + path + " has fewer than " + d + " coordinates");
+            }
+
+            parseNumber(limit);
+            point[j] = value;
+          }
+
+          skipLine(limit);
+        }
+
+        line++;
+      }
+    }
+
+    // moves past spaces, tabs and carriage returns
+    private void skipBlanks(int limit) {
+      while (pos < limit) {
+        byte b = buffer.get(pos);
+        if (b != ' ' && b != '\t' && b != '\r') return;
+        pos++;
+      }
+    }
+
+    // moves past the next newline
+    private void skipLine(int limit) {
+      while (pos < limit && buffer.get(pos++) != '\n');
+    }
+
+    // parses the number at pos into value
+    private void parseNumber(int limit) {
+
+      int begin = pos;
+
+      boolean negative = false;
+      byte b = buffer.get(pos);
+
+      if (b == '-' || b == '+') {
+        negative = (b == '-');
+        pos++;
+      }
+
+      long mantissa = 0;
+      int digits = 0;
+      int exponent = 0;
+      boolean seenDigit = false;
+
+      // integer part
+      while (pos < limit && (b = buffer.get(pos)) >= '0' && b <= '9') {
+        seenDigit = true;
+        if (mantissa == 0 && b == '0') {
+          // leading zeros do not count towards the significant digits
+        }
+        else if (digits < 18) {
+          mantissa = 10*mantissa + (b - '0');
+          digits++;
+        }
+        else {
+          exponent++;
+        }
+        pos++;
+      }
+
+      // fractional part
+      if (pos < limit && buffer.get(pos) == '.') {
+        pos++;
+        while (pos < limit && (b = buffer.get(pos)) >= '0' && b <= '9') {
+          seenDigit = true;
+          if (mantissa == 0 && b == '0') {
+            exponent--;
+          }
+          else if (digits < 18) {
+            mantissa = 10*mantissa + (b - '0');
+            digits++;
+            exponent--;
+          }
+          pos++;
+        }
+      }
+
+      // exponent
+      if (seenDigit && pos < limit && ((b = buffer.get(pos)) == 'e' || b == 'E')) {
+
+        pos++;
+
+        boolean negativeExponent = false;
+        if (pos < limit && ((b = buffer.get(pos)) == '-' || b == '+')) {
+          negativeExponent = (b == '-');
+          pos++;
+        }
+
+        int e = 0;
+        boolean seenExponentDigit = false;
+        while (pos < limit && (b = buffer.get(pos)) >= '0' && b <= '9') {
+          seenExponentDigit = true;
+          if (e < 100000) e = 10*e + (b - '0');
+          pos++;
+        }
+
+        if (!seenExponentDigit) {
+          seenDigit = false;
+        }
+
+        exponent += negativeExponent ? -e : e;
+      }
+
+      // the number must end at a blank or the end of the line
+      boolean ended = (pos >= limit || (b = buffer.get(pos)) == ' ' || b == '\t' || b == '\r' || b == '\n');
+
+      if (!seenDigit || !ended) {
+        fallback(begin, limit);
+        return;
+      }
+
+      if (mantissa == 0) {
+        value = negative ? -0.0f : 0.0f;
+      }
+      else if (mantissa < (1L << 24) && exponent >= -10 && exponent <= 10) {
+
+        // both operands are exact, so the result is correctly rounded
+        float f = (float)mantissa;
+        f = (exponent >= 0) ? f*FLOAT_POW10[exponent] : f/FLOAT_POW10[-exponent];
+        value = negative ? -f : f;
+      }
+      else if (digits <= 15 && exponent >= -22 && exponent <= 22) {
+
+        double v = (double)mantissa;
+        v = (exponent >= 0) ? v*DOUBLE_POW10[exponent] : v/DOUBLE_POW10[-exponent];
+        value = (float)(negative ? -v : v);
+      }
+      else {
+        fallback(begin, limit);
+      }
+    }
+
+    // parses the token starting at begin with Float.parseFloat
+    private void fallback(int begin, int limit) {
+
+      pos = begin;
+
+      byte b;
+      while (pos < limit && (b = buffer.get(pos)) != ' ' && b != '\t' && b != '\r' && b != '\n') {
+        pos++;
+      }
+
+      byte[] token = new byte[pos - begin];
+      buffer.get(begin, token);
+
+      value = Float.parseFloat(new String(token));
+    }
+  }
+}
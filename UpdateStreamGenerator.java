@@ -1,6 +1,9 @@
 import java.util.*;
 import java.io.*;
 import java.lang.Math;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 
 // generates a stream of m updates given data path
 
@@ -15,6 +18,9 @@ abstract class UpdateStreamGenerator {
   // returns whether update i is an insertion (true) / deletion (false)
   public abstract boolean updateType(int i);
 
+  // returns the number of updates in the stream
+  public abstract int streamLength();
+
 }
 
 // generates update sequences in the sliding window model
@@ -109,15 +115,48 @@ class SlidingWindow extends UpdateStreamGenerator {
   // loads the data points
   private void loadData(String path, int offset) {
 
-    Scanner scanner = null;
+    // use the binary version of the dataset if it has been created
+    if (BinaryDataset.isBinary(path + ".bin")) {
+      this.loadBinaryData(path + ".bin", offset);
+      return;
+    }
+
+    TextDatasetParser parser = null;
 
-    // create scanner to read from file
     try {
-      scanner = new Scanner(new File(path));
-    } catch(FileNotFoundException error) {}
+      parser = new TextDatasetParser(path);
+
+      this.n = Math.min(parser.n(), this.n - offset);
+      this.d = parser.d();
+
+      // ensure window is not too large
+      this.windowLength = Math.min(n, windowLength);
+
+      // initialise array to store data
+      data = new float[this.n][this.d];
+
+      // parse the points after the first offset many points in parallel
+      parser.parse(offset, data);
+    } catch(IOException error) {
+      throw new UncheckedIOException(error);
+    }
+
+    parser.printThroughput();
+  }
 
-    this.n = Math.min(scanner.nextInt(), this.n - offset);
-    this.d = scanner.nextInt();
+  // loads the data points from a file in the binary format
+  private void loadBinaryData(String path, int offset) {
+
+    BinaryDataset dataset = null;
+
+    try {
+      dataset = new BinaryDataset(path);
+    } catch(IOException error) {
+      throw new UncheckedIOException(error);
+    }
+
+    this.n = Math.min(dataset.n(), this.n - offset);
+    this.d = dataset.d();
 
     // ensure window is not too large
     this.windowLength = Math.min(n, windowLength);
@@ -125,20 +164,10 @@ class SlidingWindow extends UpdateStreamGenerator {
     // initialise array to store data
     data = new float[this.n][this.d];
 
-    // move past first offset many points
-    for (int i = 0; i < offset*d; i++) {
-      scanner.nextFloat();
-    }
-
-    // load the data from the file
+    // copy the points after the first offset many points
     for (int i = 0; i < this.n; i++) {
-      for (int j = 0; j < this.d; j++) {
-        data[i][j] = scanner.nextFloat();
-      }
+      dataset.get(offset + i, data[i]);
     }
-
-    // close the scanner
-    scanner.close();
   }
 
   // generate a permutation of the points u.a.r
@@ -171,3 +200,264 @@ class SlidingWindow extends UpdateStreamGenerator {
     return this.n*2;
   }
 }
+
+/*
+
+generates sliding window updates like SlidingWindow (with the same number of
+points for the same n and offset), but streams the points from a dataset in
+the binary format (see BinaryDataset) instead of loading the whole dataset,
+only the live window and a buffer of points read ahead are kept in memory, so
+the memory used is O((windowLength + prefetch)*d)
+
+in sequential order the updates are exactly those of SlidingWindow, in random
+order the points are taken in the order of a random affine permutation
+j -> (a*j + b) mod n, which is cheap to store but is a small and highly
+structured subset of all permutations, so the stream is not distributed like
+the uniformly shuffled stream of SlidingWindow
+
+NOTE: the updates must be accessed in increasing order (accessing the same
+update more than once is fine), point returns a copy of the point since the
+rows it is read into are recycled once the point has been deleted, and close
+closes the file once the stream is no longer needed
+
+*/
+
+class StreamingSlidingWindow extends UpdateStreamGenerator implements Closeable {
+
+  // number of points to insert and delete
+  private int n;
+
+  // the length of the sliding window
+  private int windowLength;
+
+  // stores the dimension of the data
+  private int d;
+
+  // the file containing the dataset and the index of the first point used
+  private FileChannel channel;
+  private int offset;
+
+  // key j is the point perm(j) = (permA*j + permB) mod n of the stream
+  private long permA;
+  private long permB;
+
+  // number of points read from the file at a time
+  private int prefetch;
+
+  // ring of rows, the point with key j is stored in rows[j % rows.length]
+  private float[][] rows;
+
+  // the key currently stored in each row
+  private int[] rowKeys;
+
+  // the points with keys 0, ..., loaded - 1 have been read
+  private int loaded;
+
+  // buffer for reading from the file
+  private ByteBuffer buffer;
+
+  StreamingSlidingWindow(int n, int windowLength, String path, boolean randomOrder, int offset, int prefetch) {
+
+    try {
+      this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+
+      // read the header
+      ByteBuffer header = ByteBuffer.allocate(BinaryDataset.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(header, 0);
+      header.flip();
+
+      if (header.remaining() < BinaryDataset.HEADER_BYTES || header.getInt() != BinaryDataset.MAGIC) {
+        throw new IOException(path + " is not a binary dataset (see ConvertDataset)");
+      }
+
+      // the points after the first offset many points, as in SlidingWindow
+      this.n = Math.min(header.getInt(), n - offset);
+      this.d = header.getInt();
+    } catch(IOException error) {
+
+      // the file is not kept open if the stream cannot be read from it
+      if (this.channel != null) {
+        try {
+          this.channel.close();
+        } catch(IOException closeError) {
+          error.addSuppressed(closeError);
+        }
+      }
+
+      throw new UncheckedIOException(error);
+    }
+
+    this.offset = offset;
+
+    // ensure window is not too large
+    this.windowLength = Math.min(this.n, windowLength);
+
+    this.prefetch = Math.max(1, prefetch);
+
+    // generate the permutation of points
+    generatePermutation(randomOrder);
+
+    int capacity = this.windowLength + this.prefetch;
+
+    this.rows = new float[capacity][this.d];
+    this.rowKeys = new int[capacity];
+    Arrays.fill(this.rowKeys, -1);
+
+    this.loaded = 0;
+
+    this.buffer = ByteBuffer.allocateDirect(this.prefetch*this.d*4).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  StreamingSlidingWindow(int n, int windowLength, String path, boolean randomOrder) {
+    this(n, windowLength, path, randomOrder, 0, Math.min(Math.max(1, windowLength), 4096));
+  }
+
+  StreamingSlidingWindow(int n, int windowLength, String path) {
+    this(n, windowLength, path, false);
+  }
+
+  // returns (a copy of) the data point in update i
+  public float[] point(int i) {
+
+    int key = this.key(i);
+
+    // read ahead until this point has been loaded
+    while (key >= this.loaded) {
+      this.readAhead();
+    }
+
+    int row = key % this.rows.length;
+
+    if (this.rowKeys[row] != key) {
+      throw new IllegalStateException("the point of update " + i + " has already been recycled");
+    }
+
+    // the algorithms may keep the point (e.g. in a coreset), so it must not
+    // be overwritten when the row is recycled
+    return this.rows[row].clone();
+  }
+
+  // returns the (unique) key corresponding to the data point in update i
+  public int key(int i) {
+
+    if (i < this.windowLength)
+      return i;
+
+    if (i > this.windowLength - 1 + 2*(this.n - this.windowLength))
+      return i - this.n;
+
+    if ((i - this.windowLength) % 2 == 1)
+      return (i + this.windowLength - 1)/2;
+
+    return (i - this.windowLength)/2;
+  }
+
+  // returns whether update i is an insertion (true) / deletion (false)
+  public boolean updateType(int i) {
+
+    if (i < this.windowLength)
+      return true;
+
+    if (i > this.windowLength - 1 + 2*(this.n - this.windowLength))
+      return false;
+
+    if ((i - this.windowLength) % 2 == 1)
+      return true;
+
+    return false;
+  }
+
+  // reads the next prefetch many points into the rows of points that have
+  // already been deleted
+  private void readAhead() {
+
+    int count = Math.min(this.prefetch, this.n - this.loaded);
+
+    if (count <= 0) {
+      throw new IllegalStateException("there are only " + this.n + " points in the stream");
+    }
+
+    try {
+      if (this.permA == 1 && this.permB == 0) {
+
+        // the points are consecutive in the file
+        this.read(this.offset + this.loaded, count);
+
+        FloatBuffer floats = this.buffer.asFloatBuffer();
+        for (int j = 0; j < count; j++) {
+          int key = this.loaded + j;
+          floats.get(this.rows[key % this.rows.length]);
+          this.rowKeys[key % this.rows.length] = key;
+        }
+      }
+      else {
+        for (int j = 0; j < count; j++) {
+          int key = this.loaded + j;
+          this.read(this.offset + this.perm(key), 1);
+          this.buffer.asFloatBuffer().get(this.rows[key % this.rows.length]);
+          this.rowKeys[key % this.rows.length] = key;
+        }
+      }
+    } catch(IOException error) {
+      throw new UncheckedIOException(error);
+    }
+
+    this.loaded += count;
+  }
+
+  // reads count many points starting from point i of the file into the buffer
+  private void read(int i, int count) throws IOException {
+
+    this.buffer.clear();
+    this.buffer.limit(count*this.d*4);
+
+    long position = BinaryDataset.HEADER_BYTES + 4L*this.d*i;
+
+    while (this.buffer.hasRemaining()) {
+      if (this.channel.read(this.buffer, position + this.buffer.position()) < 0) {
+        throw new EOFException("unexpected end of dataset");
+      }
+    }
+
+    this.buffer.flip();
+  }
+
+  // closes the file the points are read from
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  // the index of the point with this key
+  private int perm(int key) {
+    return (int)((this.permA*key + this.permB) % this.n);
+  }
+
+  // choose a permutation of the points u.a.r from the affine permutations of
+  // Z_n, which (unlike a uniformly random permutation) need constant memory,
+  // but are far from uniformly random among all permutations
+  private void generatePermutation(boolean randomOrder) {
+
+    this.permA = 1;
+    this.permB = 0;
+
+    if (!randomOrder || this.n <= 1) return;
+
+    Random rng = new Random();
+
+    do {
+      this.permA = 1 + rng.nextInt(this.n - 1);
+    } while (gcd(this.permA, this.n) != 1);
+
+    this.permB = rng.nextInt(this.n);
+  }
+
+  // greatest common divisor
+  private static long gcd(long a, long b) {
+    return (b == 0) ? a : gcd(b, a % b);
+  }
+
+  // check if there is an update i
+  public int streamLength() {
+    return this.n*2;
+  }
+}
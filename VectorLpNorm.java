@@ -0,0 +1,210 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+
+implementation of Lp-norm with SIMD kernels written against the (incubating)
+vector API, compiling and running this class requires the flag
+--add-modules jdk.incubator.vector
+
+NOTE: the kernels for p = 1 and p = 2 accumulate in single precision across
+the lanes of a vector, so their result differs from the scalar LpNorm kernels
+(which accumulate in double precision) by a relative error of at most about
+d * 2^-24 (roughly 1e-5 when d = 128), the kernel for p = infinity is exact
+
+*/
+
+class VectorLpNorm extends LpNorm {
+
+  // the preferred vector shape on this platform
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+  // largest dimension for which L2 distance matrices are computed with the
+  // L2DistanceMatrix engine, above it the SIMD kernels evaluating distances
+  // directly are faster (see the matrix section of MetricBenchmark)
+  private static final int ENGINE_DIMENSIONS = 96;
+
+  VectorLpNorm(int p, float noise) {
+    super(p, noise);
+  }
+
+  VectorLpNorm(int p) {
+    super(p);
+  }
+
+  public float d(float[] x, float[] y) {
+
+    // ensure vectors have same dimension
+    if (x.length != y.length) {
+      return 0;
+    }
+
+    switch (p) {
+      case 1:
+        return l1(x, y, 0) + noise;
+      case 2:
+        return (float)Math.sqrt(l2Squared(x, y, 0)) + noise;
+      case INFINITY:
+        return lInf(x, y, 0) + noise;
+      default:
+        return dGeneric(x, y);
+    }
+  }
+
+  public void distanceMatrix(float[][] xs, int n, float[][] ys, int m, float[][] out) {
+
+    if (n == 0 || m == 0) return;
+
+    // use the engine based on dot products for the L2 norm in low dimensions
+    if (p == 2 && xs[0].length <= ENGINE_DIMENSIONS && sameDimension(xs, n, ys, m)) {
+      L2DistanceMatrix.compute(xs, n, ys, m, out, noise);
+      return;
+    }
+
+    tiledDistanceMatrix(xs, n, ys, m, out);
+  }
+
+  protected float cdAt(float[] x, float[] y, int o) {
+
+    switch (p) {
+      case 1:
+        return l1(x, y, o);
+      case 2:
+        return l2Squared(x, y, o);
+      case INFINITY:
+        return lInf(x, y, o);
+      default:
+        return super.cdAt(x, y, o);
+    }
+  }
+
+  protected void cd4(float[] x, float[] y0, int o0, float[] y1, int o1, float[] y2, int o2, float[] y3, int o3, float[] out, int i) {
+
+    // only the squared L2 kernel reuses the loads of x across the four points
+    if (p != 2) {
+      out[i] = cdAt(x, y0, o0);
+      out[i+1] = cdAt(x, y1, o1);
+      out[i+2] = cdAt(x, y2, o2);
+      out[i+3] = cdAt(x, y3, o3);
+      return;
+    }
+
+    FloatVector acc0 = FloatVector.zero(SPECIES);
+    FloatVector acc1 = FloatVector.zero(SPECIES);
+    FloatVector acc2 = FloatVector.zero(SPECIES);
+    FloatVector acc3 = FloatVector.zero(SPECIES);
+
+    int len = x.length;
+    int bound = SPECIES.loopBound(len);
+    int l = 0;
+
+    for (; l < bound; l += SPECIES.length()) {
+      FloatVector a = FloatVector.fromArray(SPECIES, x, l);
+      FloatVector c0 = a.sub(FloatVector.fromArray(SPECIES, y0, o0 + l));
+      FloatVector c1 = a.sub(FloatVector.fromArray(SPECIES, y1, o1 + l));
+      FloatVector c2 = a.sub(FloatVector.fromArray(SPECIES, y2, o2 + l));
+      FloatVector c3 = a.sub(FloatVector.fromArray(SPECIES, y3, o3 + l));
+      acc0 = c0.fma(c0, acc0);
+      acc1 = c1.fma(c1, acc1);
+      acc2 = c2.fma(c2, acc2);
+      acc3 = c3.fma(c3, acc3);
+    }
+
+    float s0 = acc0.reduceLanes(VectorOperators.ADD);
+    float s1 = acc1.reduceLanes(VectorOperators.ADD);
+    float s2 = acc2.reduceLanes(VectorOperators.ADD);
+    float s3 = acc3.reduceLanes(VectorOperators.ADD);
+
+    for (; l < len; l++) {
+      float a = x[l];
+      float c0 = a - y0[o0 + l];
+      float c1 = a - y1[o1 + l];
+      float c2 = a - y2[o2 + l];
+      float c3 = a - y3[o3 + l];
+      s0 += c0*c0;
+      s1 += c1*c1;
+      s2 += c2*c2;
+      s3 += c3*c3;
+    }
+
+    out[i] = s0;
+    out[i+1] = s1;
+    out[i+2] = s2;
+    out[i+3] = s3;
+  }
+
+  // sum of absolute differences
+  private static float l1(float[] x, float[] y, int o) {
+
+    FloatVector acc = FloatVector.zero(SPECIES);
+
+    int len = x.length;
+    int bound = SPECIES.loopBound(len);
+    int i = 0;
+
+    for (; i < bound; i += SPECIES.length()) {
+      FloatVector a = FloatVector.fromArray(SPECIES, x, i);
+      FloatVector b = FloatVector.fromArray(SPECIES, y, o + i);
+      acc = acc.add(a.sub(b).abs());
+    }
+
+    float s = acc.reduceLanes(VectorOperators.ADD);
+
+    for (; i < len; i++) {
+      s += Math.abs(x[i] - y[o + i]);
+    }
+
+    return s;
+  }
+
+  // sum of squared differences
+  private static float l2Squared(float[] x, float[] y, int o) {
+
+    FloatVector acc = FloatVector.zero(SPECIES);
+
+    int len = x.length;
+    int bound = SPECIES.loopBound(len);
+    int i = 0;
+
+    for (; i < bound; i += SPECIES.length()) {
+      FloatVector a = FloatVector.fromArray(SPECIES, x, i);
+      FloatVector b = FloatVector.fromArray(SPECIES, y, o + i);
+      FloatVector c = a.sub(b);
+      acc = c.fma(c, acc);
+    }
+
+    float s = acc.reduceLanes(VectorOperators.ADD);
+
+    for (; i < len; i++) {
+      float c = x[i] - y[o + i];
+      s += c*c;
+    }
+
+    return s;
+  }
+
+  // largest absolute difference
+  private static float lInf(float[] x, float[] y, int o) {
+
+    FloatVector acc = FloatVector.zero(SPECIES);
+
+    int len = x.length;
+    int bound = SPECIES.loopBound(len);
+    int i = 0;
+
+    for (; i < bound; i += SPECIES.length()) {
+      FloatVector a = FloatVector.fromArray(SPECIES, x, i);
+      FloatVector b = FloatVector.fromArray(SPECIES, y, o + i);
+      acc = acc.max(a.sub(b).abs());
+    }
+
+    float m = acc.reduceLanes(VectorOperators.MAX);
+
+    for (; i < len; i++) {
+      m = Math.max(m, Math.abs(x[i] - y[o + i]));
+    }
+
+    return m;
+  }
+}
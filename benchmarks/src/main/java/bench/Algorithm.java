@@ -0,0 +1,126 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/*
+
+wrapper around a DynamicAlgorithm
+
+the algorithms live in the unnamed package, which cannot be imported from a
+named package (and JMH does not allow benchmarks in the unnamed package), so
+they are created by reflection and driven through method handles bound to the
+instance, calling these with invokeExact costs a few nanoseconds per call
+
+*/
+
+public final class Algorithm {
+
+  // parameters of DynamicMP used in the experiments
+  public static final float BETA = 0.5f;
+  public static final float EPSILON = 0.2f;
+
+  private final Object instance;
+
+  private final MethodHandle insert;
+  private final MethodHandle delete;
+  private final MethodHandle applyBatch;
+  private final MethodHandle cluster;
+
+  // sets the number of refinements allowed in a row by the query cache
+  private final MethodHandle setMaxWarmStarts;
+
+  // waits for the updates of ShardedDynamicMP to be applied (null for the
+  // algorithms which apply them synchronously)
+  private final MethodHandle flush;
+  private final MethodHandle close;
+
+  // creates the algorithm with the given name, where size is the parameter
+  // phi of DynamicMP or the coreset size m of HenzingerTree
+  public Algorithm(String name, int k, int size, float noise) {
+    this(name, k, size, noise, 1);
+  }
+
+  // as above, where ShardedDynamicMP is split into the given number of shards
+  public Algorithm(String name, int k, int size, float noise, int shards) {
+
+    try {
+      Class<?> metricClass = Class.forName("Metric");
+
+      // LpNorm is package private, so its factory must be made accessible
+      Method fastest = Class.forName("LpNorm").getDeclaredMethod("fastest", int.class, float.class);
+      fastest.setAccessible(true);
+      Object metric = fastest.invoke(null, 2, noise);
+
+      Class<?> c = Class.forName(name);
+
+      switch (name) {
+        case "DynamicMP":
+          instance = c.getConstructor(int.class, metricClass, float.class, float.class, float.class).newInstance(k, metric, (float)size, BETA, EPSILON);
+          break;
+        case "HenzingerTree":
+          instance = c.getConstructor(int.class, metricClass, int.class).newInstance(k, metric, size);
+          break;
+        case "ShardedDynamicMP":
+          instance = c.getConstructor(int.class, metricClass, float.class, float.class, float.class, int.class).newInstance(k, metric, (float)size, BETA, EPSILON, shards);
+          break;
+        default:
+          throw new IllegalArgumentException("unknown algorithm " + name);
+      }
+
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+      insert = lookup.findVirtual(c, "insert", MethodType.methodType(void.class, int.class, float[].class)).bindTo(instance);
+      delete = lookup.findVirtual(c, "delete", MethodType.methodType(void.class, int.class)).bindTo(instance);
+      applyBatch = lookup.findVirtual(c, "applyBatch", MethodType.methodType(void.class, int[].class, float[][].class)).bindTo(instance);
+      cluster = lookup.findVirtual(c, "cluster", MethodType.methodType(java.util.TreeMap.class)).bindTo(instance).asType(MethodType.methodType(Object.class));
+
+      Class<?> cacheClass = Class.forName("QueryCache");
+      Object cache = c.getMethod("queryCache").invoke(instance);
+      setMaxWarmStarts = lookup.findVirtual(cacheClass, "setMaxWarmStarts", MethodType.methodType(void.class, int.class)).bindTo(cache);
+
+      if (name.equals("ShardedDynamicMP")) {
+        flush = lookup.findVirtual(c, "flush", MethodType.methodType(void.class)).bindTo(instance);
+        close = lookup.findVirtual(c, "close", MethodType.methodType(void.class)).bindTo(instance);
+      }
+      else {
+        flush = null;
+        close = null;
+      }
+
+    } catch (ReflectiveOperationException error) {
+      throw new IllegalStateException("could not create " + name, error);
+    }
+  }
+
+  public void insert(int key, float[] point) throws Throwable {
+    insert.invokeExact(key, point);
+  }
+
+  public void delete(int key) throws Throwable {
+    delete.invokeExact(key);
+  }
+
+  public void applyBatch(int[] keys, float[][] points) throws Throwable {
+    applyBatch.invokeExact(keys, points);
+  }
+
+  public Object cluster() throws Throwable {
+    return (Object)cluster.invokeExact();
+  }
+
+  // enables the refinement of the last solution by the queries (disabled by default)
+  public void setMaxWarmStarts(int maxWarmStarts) throws Throwable {
+    setMaxWarmStarts.invokeExact(maxWarmStarts);
+  }
+
+  public void flush() throws Throwable {
+    if (flush != null) flush.invokeExact();
+  }
+
+  public void close() throws Throwable {
+    if (close != null) close.invokeExact();
+  }
+}
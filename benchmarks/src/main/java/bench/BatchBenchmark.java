@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+
+sliding a full window by windowLength points in micro-batches, each batch
+inserts batchSize new points and deletes the batchSize oldest ones through a
+single call to applyBatch, a batch size of 1 matches the single updates of
+ReconstructionBenchmark.slideWindow
+
+*/
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class BatchBenchmark {
+
+  public static class FullState extends WindowState {
+
+    @Param({"1", "100", "1000"})
+    public int batchSize;
+  }
+
+  @Benchmark
+  public void slideWindow(FullState state) throws Throwable {
+
+    int[] keys = new int[2*state.batchSize];
+    float[][] points = new float[2*state.batchSize][];
+
+    for (int slid = 0; slid < state.windowLength; slid += state.batchSize) {
+
+      // interleave the insertions with the deletions, as a window would see them
+      for (int i = 0; i < state.batchSize; i++) {
+        keys[2*i] = state.next;
+        points[2*i] = state.points[state.next % state.points.length];
+        keys[2*i + 1] = state.oldest;
+        points[2*i + 1] = null;
+        state.next++;
+        state.oldest++;
+      }
+
+      state.algo.applyBatch(keys, points);
+    }
+  }
+}
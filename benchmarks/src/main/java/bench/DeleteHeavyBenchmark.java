@@ -0,0 +1,65 @@
+package bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+
+delete-heavy streams: a full window is drained by deleting all of its points,
+either oldest first (as in a sliding window) or in a random order, which
+deletes sampled points throughout the layers of DynamicMP and so exercises
+the replacement of samples by the closest remaining point of their cluster
+
+the algorithm is refilled before each single shot, outside the measurement
+
+*/
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class DeleteHeavyBenchmark {
+
+  public static class FullWindow extends WindowState {
+
+    // the order in which the keys of the window are deleted
+    int[] order;
+
+    @Setup(Level.Invocation)
+    public void refill() throws Throwable {
+
+      fill();
+
+      order = new int[windowLength];
+      for (int i = 0; i < windowLength; i++) {
+        order[i] = i;
+      }
+
+      // shuffle with a fixed seed so every invocation deletes in the same order
+      Random rng = new Random(7);
+      for (int i = windowLength - 1; i > 0; i--) {
+        int j = rng.nextInt(i + 1);
+        int t = order[i];
+        order[i] = order[j];
+        order[j] = t;
+      }
+    }
+  }
+
+  @Benchmark
+  public void drainOldestFirst(FullWindow state) throws Throwable {
+    while (state.oldest < state.next) {
+      state.deleteOldest();
+    }
+  }
+
+  @Benchmark
+  public void drainRandomOrder(FullWindow state) throws Throwable {
+    for (int key : state.order) {
+      state.algo.delete(key);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+
+queries on a full window, the window slides by one point before each query
+so that every query sees a coreset that has changed since the previous one,
+with and without the refinement of the last solution by the query cache
+
+*/
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class QueryBenchmark {
+
+  public static class QueryState extends WindowState {
+
+    // number of refinements allowed in a row (0 clusters every coreset from scratch)
+    @Param({"0", "10"})
+    public int warmStarts;
+
+    protected void fill() throws Throwable {
+      super.fill();
+      algo.setMaxWarmStarts(warmStarts);
+    }
+
+    @Setup(Level.Invocation)
+    public void slide() throws Throwable {
+      deleteOldest();
+      insertNext();
+    }
+  }
+
+  @Benchmark
+  public Object cluster(QueryState state) throws Throwable {
+    return state.algo.cluster();
+  }
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+
+phases dominated by reconstructions, measured as single shots: filling an
+empty instance with a whole window (which builds every layer of DynamicMP
+from scratch) and sliding a full window by windowLength points (during which
+DynamicMP reconstructs from layer 0 every beta*epsilon*windowLength updates)
+
+*/
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ReconstructionBenchmark {
+
+  public static class EmptyState extends WindowState {
+
+    @Setup(Level.Invocation)
+    public void empty() throws Throwable {
+      algo = new Algorithm(algorithm, k, size, 1.0f/windowLength);
+      oldest = 0;
+      next = 0;
+    }
+  }
+
+  public static class FullState extends WindowState {
+  }
+
+  @Benchmark
+  public void fillWindow(EmptyState state) throws Throwable {
+    while (state.next < state.windowLength) {
+      state.insertNext();
+    }
+  }
+
+  @Benchmark
+  public void slideWindow(FullState state) throws Throwable {
+    for (int i = 0; i < state.windowLength; i++) {
+      state.deleteOldest();
+      state.insertNext();
+    }
+  }
+}
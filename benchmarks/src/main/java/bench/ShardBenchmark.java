@@ -0,0 +1,87 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+
+throughput of ShardedDynamicMP against the number of shards, each invocation
+slides a full window by one point (an insertion and a deletion), so the score
+is in updates per second
+
+the updates are applied asynchronously, the time spent applying them is still
+measured since the queues of the shards are bounded (so the caller is throttled
+to the rate of the shards), and the updates left in the queues at the end of an
+iteration are applied before the next one
+
+*/
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ShardBenchmark {
+
+  @State(Scope.Thread)
+  public static class ShardState {
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"10"})
+    public int k;
+
+    // phi of each shard
+    @Param({"500"})
+    public int size;
+
+    @Param({"16", "128"})
+    public int dimension;
+
+    @Param({"10000"})
+    public int windowLength;
+
+    Algorithm algo;
+
+    float[][] points;
+
+    int oldest;
+    int next;
+
+    @Setup(Level.Trial)
+    public void fill() throws Throwable {
+
+      points = SyntheticStream.points(4*windowLength, dimension, 42);
+
+      algo = new Algorithm("ShardedDynamicMP", k, size, 1.0f/windowLength, shards);
+
+      while (next < windowLength) {
+        algo.insert(next, points[next % points.length]);
+        next++;
+      }
+
+      algo.flush();
+    }
+
+    @TearDown(Level.Iteration)
+    public void flush() throws Throwable {
+      algo.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Throwable {
+      algo.close();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(2)
+  public void slide(ShardState state) throws Throwable {
+    state.algo.insert(state.next, state.points[state.next % state.points.length]);
+    state.algo.delete(state.oldest);
+    state.next++;
+    state.oldest++;
+  }
+}
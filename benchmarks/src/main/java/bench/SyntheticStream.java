@@ -0,0 +1,41 @@
+package bench;
+
+import java.util.Random;
+
+/*
+
+pre-generated synthetic data, so the benchmarks do not need any data files
+
+*/
+
+public final class SyntheticStream {
+
+  // number of gaussian clusters the points are drawn from
+  public static final int CLUSTERS = 20;
+
+  private SyntheticStream() {}
+
+  // n points of dimension d drawn from a mixture of unit variance gaussians
+  // whose centers are drawn uniformly from [-10, 10]^d
+  public static float[][] points(int n, int d, long seed) {
+
+    Random rng = new Random(seed);
+
+    float[][] centers = new float[CLUSTERS][d];
+    for (float[] center : centers) {
+      for (int j = 0; j < d; j++) {
+        center[j] = 20*rng.nextFloat() - 10;
+      }
+    }
+
+    float[][] points = new float[n][d];
+    for (float[] point : points) {
+      float[] center = centers[rng.nextInt(CLUSTERS)];
+      for (int j = 0; j < d; j++) {
+        point[j] = center[j] + (float)rng.nextGaussian();
+      }
+    }
+
+    return points;
+  }
+}
@@ -0,0 +1,49 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+
+steady state insertions and deletions on a full window, the untimed setup
+before each invocation restores the window to its full size, so the timed
+update always sees a window of windowLength points
+
+*/
+
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class UpdateBenchmark {
+
+  public static class InsertState extends WindowState {
+
+    // make room for the insertion
+    @Setup(Level.Invocation)
+    public void makeRoom() throws Throwable {
+      deleteOldest();
+    }
+  }
+
+  public static class DeleteState extends WindowState {
+
+    // add the point to be deleted
+    @Setup(Level.Invocation)
+    public void addPoint() throws Throwable {
+      insertNext();
+    }
+  }
+
+  @Benchmark
+  public void insert(InsertState state) throws Throwable {
+    state.insertNext();
+  }
+
+  @Benchmark
+  public void delete(DeleteState state) throws Throwable {
+    state.deleteOldest();
+  }
+}
@@ -0,0 +1,68 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+
+a sliding window of synthetic points fed to one of the algorithms, the keys
+of the live points are oldest, ..., next - 1
+
+*/
+
+@State(Scope.Thread)
+public abstract class WindowState {
+
+  @Param({"DynamicMP", "HenzingerTree"})
+  public String algorithm;
+
+  @Param({"10", "50"})
+  public int k;
+
+  // phi for DynamicMP and m for HenzingerTree
+  @Param({"500"})
+  public int size;
+
+  @Param({"16", "128"})
+  public int dimension;
+
+  @Param({"2000", "10000"})
+  public int windowLength;
+
+  protected Algorithm algo;
+
+  // the points of the stream (key i is the point points[i % points.length])
+  protected float[][] points;
+
+  // the oldest live key and the next key to insert
+  protected int oldest;
+  protected int next;
+
+  @Setup(Level.Trial)
+  public void setUpStream() throws Throwable {
+    points = SyntheticStream.points(4*windowLength, dimension, 42);
+    fill();
+  }
+
+  // creates a new instance of the algorithm and fills the window
+  protected void fill() throws Throwable {
+
+    algo = new Algorithm(algorithm, k, size, 1.0f/windowLength);
+
+    oldest = 0;
+    next = 0;
+
+    while (next < windowLength) {
+      insertNext();
+    }
+  }
+
+  protected void insertNext() throws Throwable {
+    algo.insert(next, points[next % points.length]);
+    next++;
+  }
+
+  protected void deleteOldest() throws Throwable {
+    algo.delete(oldest);
+    oldest++;
+  }
+}
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+
+tests of applyBatch against the same updates applied one at a time
+
+*/
+
+public class BatchUpdateTest {
+
+  // as long as no layer or coreset is constructed, every live point is in the
+  // coreset with its weight, so a batch (inserting, deleting and reinserting
+  // keys) gives exactly the coreset of the same updates applied one at a time
+  @Test
+  public void smallBatchMatchesSingleUpdates() {
+
+    int[] keys = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 3, 10, 0, 11};
+    float[][] points = new float[keys.length][];
+    float[] weights = new float[keys.length];
+
+    for (int i = 0; i < keys.length; i++) {
+      if (i != 10 && i != 12) points[i] = new float[] {i, 2*i};
+      weights[i] = 1 + i;
+    }
+
+    for (Supplier<DynamicAlgorithm> factory : factories()) {
+
+      DynamicAlgorithm single = factory.get();
+      DynamicAlgorithm batch = factory.get();
+
+      for (int i = 0; i < keys.length; i++) {
+        if (points[i] == null) single.delete(keys[i]);
+        else single.insert(keys[i], points[i], weights[i]);
+      }
+
+      batch.applyBatch(keys, points, weights);
+
+      assertEquals(describe(single.coreset()), describe(batch.coreset()), single.name());
+      assertEquals(10, batch.coreset().size(), single.name());
+    }
+  }
+
+  // batches large enough to reconstruct layers (or coresets) keep the
+  // coreset to the live keys with their points, and count every update
+  @Test
+  public void batchesKeepCoresetLive() {
+
+    for (Supplier<DynamicAlgorithm> factory : factories()) {
+
+      DynamicAlgorithm single = factory.get();
+      DynamicAlgorithm batch = factory.get();
+
+      Random rng = new Random(4);
+      TreeMap<Integer, float[]> live = new TreeMap<Integer, float[]>();
+      int next = 0;
+
+      for (int b = 0; b < 100; b++) {
+
+        int size = 1 + rng.nextInt(60);
+        int[] keys = new int[size];
+        float[][] points = new float[size][];
+
+        for (int i = 0; i < size; i++) {
+          if (live.size() > 200 && rng.nextInt(3) == 0) {
+            keys[i] = live.firstKey();
+            live.remove(keys[i]);
+          }
+          else {
+            keys[i] = next;
+            points[i] = new float[] {rng.nextFloat(), rng.nextFloat()};
+            live.put(next++, points[i]);
+          }
+        }
+
+        for (int i = 0; i < size; i++) {
+          if (points[i] == null) single.delete(keys[i]);
+          else single.insert(keys[i], points[i]);
+        }
+
+        batch.applyBatch(keys, points);
+      }
+
+      for (DynamicAlgorithm algorithm : new DynamicAlgorithm[] {single, batch}) {
+
+        CoresetSnapshot coreset = algorithm.coreset();
+
+        assertTrue(coreset.size() > 0 && coreset.size() < live.size(), algorithm.name());
+        for (int i = 0; i < coreset.size(); i++) {
+          assertArrayEquals(live.get(coreset.keys()[i]), coreset.points()[i], algorithm.name() + " key " + coreset.keys()[i]);
+        }
+
+        assertEquals(5, algorithm.cluster().size(), algorithm.name());
+      }
+
+      // DynamicMP versions its coresets by the number of updates
+      if (single instanceof DynamicMP) {
+        assertEquals(single.coreset().version(), batch.coreset().version());
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Supplier<DynamicAlgorithm>[] factories() {
+    return new Supplier[] {
+      () -> new DynamicMP(5, new LpNorm(2), 40, 0.5f, 0.2f, 3),
+      () -> new HenzingerTree(5, new LpNorm(2), 20)
+    };
+  }
+
+  // the point and weight of each key in a coreset
+  private static TreeMap<Integer, String> describe(CoresetSnapshot coreset) {
+
+    TreeMap<Integer, String> points = new TreeMap<Integer, String>();
+    for (int i = 0; i < coreset.size(); i++) {
+      points.put(coreset.keys()[i], Arrays.toString(coreset.points()[i]) + " x " + coreset.weights()[i]);
+    }
+
+    return points;
+  }
+}
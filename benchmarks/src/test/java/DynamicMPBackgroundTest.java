@@ -0,0 +1,60 @@
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+
+tests of the reconstructions of DynamicMP running in the background
+
+*/
+
+public class DynamicMPBackgroundTest {
+
+  // the layers below a long reconstruction running in the background must still
+  // be reconstructed, so that the depth (and the size of the coreset) stays
+  // within a few layers of its steady state while the window slides
+  @Test
+  public void depthStaysBoundedDuringBackgroundRebuild() {
+
+    int windowLength = 40000;
+    int slides = 3500;
+    int d = 8;
+
+    float alpha = 200;
+    float beta = 0.5f;
+
+    Random rng = new Random(3);
+
+    float[][] points = new float[windowLength + slides][d];
+    for (float[] point : points) {
+      int cluster = rng.nextInt(20);
+      for (int j = 0; j < d; j++) {
+        point[j] = 3*cluster + (float)rng.nextGaussian();
+      }
+    }
+
+    DynamicMP algorithm = new DynamicMP(10, new LpNorm(2), alpha, beta, 0.2f, 7);
+    algorithm.setBackground(true);
+
+    int maxDepth = 0;
+
+    for (int i = 0; i < windowLength; i++) {
+      algorithm.insert(i, points[i]);
+      maxDepth = Math.max(maxDepth, algorithm.depth());
+    }
+
+    for (int i = 0; i < slides; i++) {
+      algorithm.insert(windowLength + i, points[windowLength + i]);
+      algorithm.delete(i);
+      maxDepth = Math.max(maxDepth, algorithm.depth());
+    }
+
+    // the depth when every layer clusters a beta fraction of its points, plus
+    // the two layers allowed while a reconstruction runs in the background
+    int steadyDepth = 2 + (int)Math.ceil(Math.log(windowLength/alpha)/-Math.log(1 - beta));
+
+    assertTrue(maxDepth <= steadyDepth + 2, "depth reached " + maxDepth + ", steady state is " + steadyDepth);
+  }
+}
@@ -0,0 +1,117 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+
+tests of the checkpoints of HenzingerTree
+
+*/
+
+public class HenzingerTreeCheckpointTest {
+
+  @TempDir
+  File directory;
+
+  // a restored tree has the coreset of the tree checkpointed (with the points
+  // of the coreset that refer to leaves resolved), can be queried, and keeps
+  // applying updates
+  @Test
+  public void restoredTreeMatchesAndKeepsUpdating() throws IOException {
+
+    Random rng = new Random(9);
+
+    HenzingerTree tree = new HenzingerTree(5, new LpNorm(2), 20);
+
+    TreeMap<Integer, float[]> live = new TreeMap<Integer, float[]>();
+
+    for (int i = 0; i < 2000; i++) {
+
+      float[] point = new float[] {rng.nextFloat(), rng.nextFloat()};
+      tree.insert(i, point);
+      live.put(i, point);
+
+      if (i % 4 == 3) {
+        tree.delete(i - 3);
+        live.remove(i - 3);
+      }
+
+      if (i % 7 == 6) {
+        float[] moved = new float[] {2 + rng.nextFloat(), rng.nextFloat()};
+        tree.move(i - 1, moved);
+        live.put(i - 1, moved);
+      }
+    }
+
+    String path = new File(directory, "tree.ckpt").getPath();
+    tree.checkpoint(path);
+
+    HenzingerTree restored = HenzingerTree.restore(path, new LpNorm(2));
+
+    CoresetSnapshot expected = tree.coreset();
+    CoresetSnapshot actual = restored.coreset();
+
+    // a sampled coreset, rather than all the points
+    assertTrue(actual.size() > 0 && actual.size() < live.size());
+
+    assertEquals(expected.version(), actual.version());
+    assertEquals(points(expected).keySet(), points(actual).keySet());
+    for (int i = 0; i < actual.size(); i++) {
+      assertNotNull(actual.points()[i]);
+      assertArrayEquals(points(expected).get(actual.keys()[i]), actual.points()[i]);
+    }
+
+    TreeMap<Integer, Integer> solution = restored.cluster();
+    assertFalse(solution.isEmpty());
+
+    // updates after the restore (through the rebuilt leaves, insertion point
+    // and refresh pointer)
+    for (int i = 2000; i < 3000; i++) {
+
+      float[] point = new float[] {rng.nextFloat(), rng.nextFloat()};
+      restored.insert(i, point);
+      live.put(i, point);
+
+      int deleted = live.firstKey();
+      restored.delete(deleted);
+      live.remove(deleted);
+
+      if (i % 5 == 0) {
+        int key = live.lastKey() - 10;
+        float[] moved = new float[] {rng.nextFloat(), 2 + rng.nextFloat()};
+        restored.move(key, moved);
+        live.put(key, moved);
+      }
+    }
+
+    CoresetSnapshot updated = restored.coreset();
+    assertTrue(updated.version() > actual.version());
+
+    TreeSet<Integer> keys = new TreeSet<Integer>();
+    for (int i = 0; i < updated.size(); i++) {
+      keys.add(updated.keys()[i]);
+      assertArrayEquals(live.get(updated.keys()[i]), updated.points()[i]);
+    }
+    assertTrue(live.keySet().containsAll(keys), "the coreset holds deleted keys");
+
+    assertFalse(restored.cluster().isEmpty());
+  }
+
+  // the point of each key in a coreset
+  private static TreeMap<Integer, float[]> points(CoresetSnapshot coreset) {
+
+    TreeMap<Integer, float[]> points = new TreeMap<Integer, float[]>();
+    for (int i = 0; i < coreset.size(); i++) {
+      points.put(coreset.keys()[i], coreset.points()[i]);
+    }
+
+    return points;
+  }
+}
@@ -0,0 +1,93 @@
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+
+tests of moving points with move(key, point)
+
+*/
+
+public class MoveTest {
+
+  @Test
+  public void dynamicMPCoresetFollowsMoves() {
+    checkMoves(new DynamicMP(5, new LpNorm(2), 40, 0.5f, 0.2f, 3));
+  }
+
+  @Test
+  public void henzingerTreeCoresetFollowsMoves() {
+    checkMoves(new HenzingerTree(5, new LpNorm(2), 20));
+  }
+
+  // moving points (the samples of the layers, or the points of the coresets,
+  // among them) keeps the coreset to the live keys, with the coordinates each
+  // was last moved to (and each once for DynamicMP, whereas the coresets of
+  // HenzingerTree are sampled with replacement)
+  private static void checkMoves(DynamicAlgorithm algorithm) {
+
+    Random rng = new Random(2);
+
+    TreeMap<Integer, float[]> live = new TreeMap<Integer, float[]>();
+
+    for (int i = 0; i < 2000; i++) {
+      float[] point = new float[] {rng.nextFloat(), rng.nextFloat()};
+      algorithm.insert(i, point);
+      live.put(i, point);
+    }
+
+    for (int i = 0; i < 2000; i += 5) {
+      algorithm.delete(i);
+      live.remove(i);
+    }
+
+    // move every live point far from where it was, in a random order, checking
+    // the coreset along the way
+    Integer[] keys = live.keySet().toArray(new Integer[0]);
+    for (int i = keys.length - 1; i > 0; i--) {
+      int j = rng.nextInt(i + 1);
+      Integer key = keys[i];
+      keys[i] = keys[j];
+      keys[j] = key;
+    }
+
+    for (int i = 0; i < keys.length; i++) {
+
+      float[] point = new float[] {10 + rng.nextFloat(), rng.nextFloat()};
+      algorithm.move(keys[i], point);
+      live.put(keys[i], point);
+
+      if (i % 200 == 0) checkCoreset(algorithm, live);
+    }
+
+    CoresetSnapshot coreset = checkCoreset(algorithm, live);
+
+    // every point has moved, so none of the old coordinates remain
+    for (int i = 0; i < coreset.size(); i++) {
+      assertTrue(coreset.points()[i][0] >= 10, algorithm.name() + " kept a point that was moved away");
+    }
+
+    assertEquals(5, algorithm.cluster().size(), algorithm.name());
+  }
+
+  private static CoresetSnapshot checkCoreset(DynamicAlgorithm algorithm, TreeMap<Integer, float[]> live) {
+
+    CoresetSnapshot coreset = algorithm.coreset();
+
+    assertTrue(coreset.size() > 0 && coreset.size() < live.size(), algorithm.name());
+
+    TreeSet<Integer> keys = new TreeSet<Integer>();
+    for (int i = 0; i < coreset.size(); i++) {
+      int key = coreset.keys()[i];
+      assertTrue(live.containsKey(key), algorithm.name() + " has deleted key " + key);
+      assertTrue(keys.add(key) || algorithm instanceof HenzingerTree, algorithm.name() + " has key " + key + " twice");
+      assertArrayEquals(live.get(key), coreset.points()[i], algorithm.name() + " key " + key);
+    }
+
+    return coreset;
+  }
+}
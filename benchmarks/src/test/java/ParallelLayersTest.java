@@ -0,0 +1,73 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+
+tests of the parallel construction of the layers of DynamicMP
+
+*/
+
+public class ParallelLayersTest {
+
+  // the points of a layer are assigned to their closest samples independently
+  // of each other, so for a fixed seed the layers (and the coresets) are the
+  // same whether they are constructed in parallel or not (the weights are
+  // whole numbers here, so their sums are exact in any order)
+  @Test
+  public void parallelLayersMatchSequential() {
+
+    assertTrue(ForkJoinPool.getCommonPoolParallelism() > 1, "the layers would not be constructed in parallel");
+
+    int windowLength = 20000;
+    int d = 8;
+
+    Random rng = new Random(6);
+
+    float[][] points = new float[windowLength + 2000][d];
+    float[] weights = new float[points.length];
+    for (int i = 0; i < points.length; i++) {
+      int cluster = rng.nextInt(20);
+      for (int j = 0; j < d; j++) {
+        points[i][j] = 3*cluster + (float)rng.nextGaussian();
+      }
+      weights[i] = 1 + rng.nextInt(4);
+    }
+
+    DynamicMP parallel = new DynamicMP(10, new LpNorm(2), 200, 0.5f, 0.2f, 7);
+    DynamicMP sequential = new DynamicMP(10, new LpNorm(2), 200, 0.5f, 0.2f, 7);
+
+    parallel.setParallel(true);
+    sequential.setParallel(false);
+
+    for (DynamicMP algorithm : new DynamicMP[] {parallel, sequential}) {
+
+      algorithm.metrics().setLayerGauges(true);
+
+      for (int i = 0; i < points.length; i++) {
+        algorithm.insert(i, points[i], weights[i]);
+        if (i >= windowLength) algorithm.delete(i - windowLength);
+      }
+    }
+
+    assertEquals(sequential.reconstructions(), parallel.reconstructions());
+
+    DynamicMPMetrics.Snapshot expected = sequential.metrics().snapshot();
+    DynamicMPMetrics.Snapshot actual = parallel.metrics().snapshot();
+
+    assertArrayEquals(expected.getLayerSizes(), actual.getLayerSizes());
+    assertArrayEquals(expected.getLayerClusters(), actual.getLayerClusters());
+
+    CoresetSnapshot expectedCoreset = sequential.coreset();
+    CoresetSnapshot actualCoreset = parallel.coreset();
+
+    assertArrayEquals(expectedCoreset.keys(), actualCoreset.keys());
+    assertArrayEquals(expectedCoreset.weights(), actualCoreset.weights());
+    for (int i = 0; i < expectedCoreset.size(); i++) {
+      assertArrayEquals(expectedCoreset.points()[i], actualCoreset.points()[i]);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+
+tests of ShardedDynamicMP through the interface of DynamicAlgorithm
+
+*/
+
+public class ShardedDynamicMPTest {
+
+  @TempDir
+  File directory;
+
+  // the coreset of an instance restored from a checkpoint is the one of the
+  // instance checkpointed, including the updates still queued when it was taken
+  @Test
+  public void checkpointRestoresEveryShard() throws IOException {
+
+    Random rng = new Random(5);
+
+    ShardedDynamicMP sharded = new ShardedDynamicMP(5, new LpNorm(2), 40, 0.5f, 0.2f, 3, 11);
+    DynamicAlgorithm algorithm = sharded;
+
+    for (int i = 0; i < 3000; i++) {
+      algorithm.insert(i, new float[] {rng.nextFloat(), rng.nextFloat()});
+      if (i % 3 == 0) algorithm.delete(i / 2);
+    }
+
+    String path = new File(directory, "sharded.ckpt").getPath();
+    algorithm.checkpoint(path);
+
+    ShardedDynamicMP restored = ShardedDynamicMP.restore(path, new LpNorm(2), 11);
+
+    CoresetSnapshot expected = algorithm.coreset();
+    CoresetSnapshot actual = restored.coreset();
+
+    assertEquals(3, restored.shards());
+    assertEquals(expected.version(), actual.version());
+    assertEquals(weights(expected), weights(actual));
+
+    // the restored shards keep applying updates
+    restored.insert(5000, new float[] {0.5f, 0.5f});
+    restored.flush();
+    assertTrue(restored.coreset().version() > actual.version());
+
+    sharded.close();
+    restored.close();
+  }
+
+  // a weighted insertion through the shards keeps its weight, and as long as
+  // few points are inserted every point is in the coreset with its own weight
+  @Test
+  public void weightedInsertReachesCoreset() {
+
+    ShardedDynamicMP sharded = new ShardedDynamicMP(5, new LpNorm(2), 40, 0.5f, 0.2f, 3, 11);
+    DynamicAlgorithm algorithm = sharded;
+
+    for (int i = 0; i < 10; i++) {
+      algorithm.insert(i, new float[] {i, 0}, 1 + i);
+    }
+
+    algorithm.applyBatch(new int[] {10, 11}, new float[][] {{10, 0}, {11, 0}}, new float[] {0.25f, 7.5f});
+
+    sharded.flush();
+
+    TreeMap<Integer, Float> weights = weights(algorithm.coreset());
+
+    assertEquals(12, weights.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(1 + i, weights.get(i), 0);
+    }
+    assertEquals(0.25f, weights.get(10), 0);
+    assertEquals(7.5f, weights.get(11), 0);
+
+    sharded.close();
+  }
+
+  // the weight of each key in a coreset
+  private static TreeMap<Integer, Float> weights(CoresetSnapshot coreset) {
+
+    TreeMap<Integer, Float> weights = new TreeMap<Integer, Float>();
+    for (int i = 0; i < coreset.size(); i++) {
+      weights.put(coreset.keys()[i], coreset.weights()[i]);
+    }
+
+    return weights;
+  }
+}